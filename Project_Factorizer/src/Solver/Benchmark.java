@@ -0,0 +1,442 @@
+package Solver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmark of the whole pipeline, {@code readFile()} and
+ * {@code solve(SolveOptions)}, on generated semiprimes.</br>
+ * {@link #generate(int[], int[], int)} writes, for every bit length of N and
+ * every imbalance (bits of the longer factor minus bits of the shorter one),
+ * the CNF of the multiplier of random primes p and q: the unit clauses of the
+ * bits of N first, then the 4 rows of every AND and XOR gate of an array
+ * multiplier whose columns are reduced with full and half adders, one group
+ * per gate. p has the bits 1..bits(N)-1 and q the following ones, as read by
+ * {@code Problem}. The primes come from the seed, so the same arguments give
+ * the same corpus.</br>
+ * {@link #run(List, Supplier)} solves every instance with fresh options and
+ * records the status, the times, the cycles and the peak heap;
+ * {@link #writeReport(List, String, String)} writes them as JSON, with the scaling
+ * curves (solve rate, times, cycles and heap for every bit length, overall
+ * and for every imbalance).
+ */
+public class Benchmark {
+
+	static final int[] DEFAULT_BITS = { 8, 12, 16, 24, 32, 48, 64, 96, 128, 192, 256, 384, 512 };
+	static final int[] DEFAULT_IMBALANCES = { 0, 2, 4 };
+	// tries to find primes of the given lengths whose product has the given bits
+	private static final int MAX_TRIES = 1000;
+
+	/**
+	 * One generated instance.
+	 */
+	public static class Instance {
+		final int bits;
+		final int imbalance;
+		final BigInteger p, q;
+		final String path;
+
+		Instance(int bits, int imbalance, BigInteger p, BigInteger q, String path) {
+			this.bits = bits;
+			this.imbalance = imbalance;
+			this.p = p;
+			this.q = q;
+			this.path = path;
+		}
+
+		public BigInteger getN() {
+			return p.multiply(q);
+		}
+
+		public String getPath() {
+			return path;
+		}
+	}
+
+	/**
+	 * Outcome of one instance.
+	 */
+	public static class Run {
+		final Instance instance;
+		// SolveResult.Status, or ERROR if readFile() or solve() has thrown
+		String status;
+		// true if the factors found are the ones of the instance
+		boolean solved;
+		long readMillis, solveMillis;
+		int cycles;
+		int relations;
+		// sum of the peaks of the heap pools, in bytes
+		long peakHeap;
+		String error;
+
+		Run(Instance instance) {
+			this.instance = instance;
+		}
+
+		public boolean isSolved() {
+			return solved;
+		}
+	}
+
+	private String directory;
+	private Random random;
+
+	/**
+	 *
+	 * @param directory
+	 *            where the instances are written.
+	 * @param seed
+	 *            of the primes.
+	 */
+	public Benchmark(String directory, long seed) {
+		this.directory = directory;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Writes perCell instances for every bit length and imbalance. The
+	 * imbalances that leave less than 2 bits to the shorter factor are
+	 * skipped.
+	 */
+	public List<Instance> generate(int[] bitLengths, int[] imbalances, int perCell) throws IOException {
+
+		new File(directory).mkdirs();
+		List<Instance> ret = new ArrayList<Instance>();
+
+		for (int bits : bitLengths)
+			for (int imbalance : imbalances) {
+				int lengthQ = (bits - imbalance) / 2;
+				int lengthP = bits - lengthQ;
+				if (lengthQ < 2)
+					continue;
+
+				for (int k = 0; k < perCell; ++k) {
+					BigInteger[] factors = factors(bits, lengthP, lengthQ);
+					if (factors == null) {
+						System.err.println("No primes of " + lengthP + " and " + lengthQ + " bits with a product of "
+								+ bits + " bits");
+						break;
+					}
+					String path = new File(directory, String.format("b%d_d%d_%d.cnf.gz", bits, imbalance, k)).getPath();
+					writeInstance(factors[0].multiply(factors[1]), path);
+					ret.add(new Instance(bits, imbalance, factors[0], factors[1], path));
+				}
+			}
+		return ret;
+	}
+
+	// primes of lengthP and lengthQ bits, different, with a product of the given bits
+	private BigInteger[] factors(int bits, int lengthP, int lengthQ) {
+		for (int t = 0; t < MAX_TRIES; ++t) {
+			BigInteger p = BigInteger.probablePrime(lengthP, random);
+			BigInteger q = BigInteger.probablePrime(lengthQ, random);
+			if (!p.equals(q) && p.multiply(q).bitLength() == bits)
+				return new BigInteger[] { p, q };
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the CNF of the multiplier for n, compressed with gzip if the path
+	 * ends with .gz.
+	 */
+	public static void writeInstance(BigInteger n, String path) throws IOException {
+
+		int bits = n.bitLength();
+		int lengthP = bits - 1;
+		int lengthQ = (bits + 1) / 2;
+		Multiplier multiplier = new Multiplier(lengthP, lengthQ);
+
+		OutputStreamWriter stream = path.endsWith(".gz")
+				? new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(path), 1 << 16))
+				: new FileWriter(path);
+		try (Writer out = new BufferedWriter(stream, 1 << 16)) {
+			out.write("c generated by Benchmark\nc array multiplier, " + lengthP + " x " + lengthQ + " bits\nc\n");
+			out.write("c Product of two primes: " + n + "\n");
+			int[] outputs = multiplier.outputs;
+			int nUnits = 0;
+			for (int output : outputs)
+				if (output != 0)
+					++nUnits;
+			out.write("p cnf " + multiplier.nVars + " " + (nUnits + multiplier.nRows) + "\n");
+
+			for (int k = 0; k < outputs.length; ++k)
+				if (outputs[k] != 0)
+					out.write((n.testBit(k) ? "" : "-") + outputs[k] + " 0\n");
+			int[] rows = multiplier.rows;
+			for (int r = 0; r < multiplier.nRows; ++r)
+				out.write(rows[3 * r] + " " + rows[3 * r + 1] + " " + rows[3 * r + 2] + " 0\n");
+		}
+	}
+
+	/**
+	 * Rows of the gates of a lengthP x lengthQ array multiplier, variables
+	 * numbered from 1 as in the file: p, q, then the gates in order.
+	 */
+	private static class Multiplier {
+		int nVars;
+		// 3 literals for every row
+		int[] rows = new int[1024];
+		int nRows;
+		// outputs[k] = variable of bit k of the product, 0 if it is always 0
+		int[] outputs;
+
+		Multiplier(int lengthP, int lengthQ) {
+
+			nVars = lengthP + lengthQ;
+			List<Deque<Integer>> columns = new ArrayList<Deque<Integer>>();
+			for (int k = 0; k <= lengthP + lengthQ; ++k)
+				columns.add(new ArrayDeque<Integer>());
+
+			for (int i = 0; i < lengthP; ++i)
+				for (int j = 0; j < lengthQ; ++j)
+					columns.get(i + j).add(and(1 + i, 1 + lengthP + j));
+
+			outputs = new int[columns.size()];
+			for (int k = 0; k < columns.size(); ++k) {
+				Deque<Integer> column = columns.get(k);
+				while (column.size() > 1) {
+					int sum, carry;
+					if (column.size() >= 3) {
+						int a = column.poll(), b = column.poll(), c = column.poll();
+						int s = xor(a, b);
+						sum = xor(s, c);
+						carry = xor(and(a, b), and(s, c));
+					} else {
+						int a = column.poll(), b = column.poll();
+						sum = xor(a, b);
+						carry = and(a, b);
+					}
+					column.add(sum);
+					if (k + 1 < columns.size())
+						columns.get(k + 1).add(carry);
+				}
+				outputs[k] = column.isEmpty() ? 0 : column.peek();
+			}
+		}
+
+		private int and(int a, int b) {
+			int c = ++nVars;
+			row(a, b, -c);
+			row(a, -b, -c);
+			row(-a, b, -c);
+			row(-a, -b, c);
+			return c;
+		}
+
+		private int xor(int a, int b) {
+			int c = ++nVars;
+			row(a, b, -c);
+			row(a, -b, c);
+			row(-a, b, c);
+			row(-a, -b, -c);
+			return c;
+		}
+
+		private void row(int a, int b, int c) {
+			if (3 * nRows + 3 > rows.length)
+				rows = Arrays.copyOf(rows, rows.length * 2);
+			rows[3 * nRows] = a;
+			rows[3 * nRows + 1] = b;
+			rows[3 * nRows + 2] = c;
+			++nRows;
+		}
+	}
+
+	/**
+	 * Reads and solves every instance, in order.
+	 *
+	 * @param options
+	 *            gives the options of every run (they cannot be reused once
+	 *            solve() has started).
+	 */
+	public List<Run> run(List<Instance> instances, Supplier<SolveOptions> options) {
+
+		List<Run> ret = new ArrayList<Run>();
+		for (Instance instance : instances) {
+			Run run = run(instance, options.get());
+			System.out.println(String.format(Locale.ROOT, "%s: %s, %d + %d ms, %d cycles, %d MB", instance.path,
+					run.status, run.readMillis, run.solveMillis, run.cycles, run.peakHeap >> 20));
+			ret.add(run);
+		}
+		return ret;
+	}
+
+	private Run run(Instance instance, SolveOptions options) {
+
+		Run ret = new Run(instance);
+		System.gc();
+		List<MemoryPoolMXBean> pools = heapPools();
+		for (MemoryPoolMXBean pool : pools)
+			pool.resetPeakUsage();
+
+		try {
+			long start = System.nanoTime();
+			Problem problem = new Problem();
+			problem.readFile(instance.path);
+			ret.readMillis = (System.nanoTime() - start) / 1000000;
+
+			start = System.nanoTime();
+			SolveResult result = problem.solve(options);
+			ret.solveMillis = (System.nanoTime() - start) / 1000000;
+
+			ret.status = result.getStatus().name();
+			ret.cycles = result.getCycles();
+			ret.relations = result.getRelations();
+			ret.solved = result.isSolved() && result.getP().multiply(result.getQ()).equals(instance.getN());
+		} catch (RuntimeException | OutOfMemoryError e) {
+			ret.status = "ERROR";
+			ret.error = e.toString();
+		}
+
+		for (MemoryPoolMXBean pool : pools)
+			ret.peakHeap += pool.getPeakUsage().getUsed();
+		return ret;
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		List<MemoryPoolMXBean> ret = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				ret.add(pool);
+		return ret;
+	}
+
+	/**
+	 * Writes the runs and the scaling curves as JSON.
+	 *
+	 * @param configuration
+	 *            description of the options, written as it is.
+	 */
+	public static void writeReport(List<Run> runs, String configuration, String path) throws IOException {
+
+		try (Writer out = new BufferedWriter(new FileWriter(path))) {
+			out.write("{\n");
+			out.write("  \"configuration\": \"" + escape(configuration) + "\",\n");
+			out.write("  \"java\": \"" + escape(System.getProperty("java.version")) + "\",\n");
+			out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+
+			out.write("  \"runs\": [");
+			for (int r = 0; r < runs.size(); ++r) {
+				Run run = runs.get(r);
+				out.write(r == 0 ? "\n" : ",\n");
+				out.write(String.format(Locale.ROOT,
+						"    {\"bits\": %d, \"imbalance\": %d, \"n\": \"%s\", \"p\": \"%s\", \"q\": \"%s\", "
+								+ "\"status\": \"%s\", \"solved\": %b, \"readMillis\": %d, \"solveMillis\": %d, "
+								+ "\"cycles\": %d, \"relations\": %d, \"peakHeap\": %d%s}",
+						run.instance.bits, run.instance.imbalance, run.instance.getN(), run.instance.p, run.instance.q,
+						run.status, run.solved, run.readMillis, run.solveMillis, run.cycles, run.relations, run.peakHeap,
+						run.error == null ? "" : ", \"error\": \"" + escape(run.error) + "\""));
+			}
+			out.write("\n  ],\n");
+
+			// scaling curves: every imbalance together, then one for each imbalance
+			TreeMap<Integer, List<Run>> all = new TreeMap<Integer, List<Run>>();
+			TreeMap<Integer, TreeMap<Integer, List<Run>>> byImbalance = new TreeMap<Integer, TreeMap<Integer, List<Run>>>();
+			for (Run run : runs) {
+				all.computeIfAbsent(run.instance.bits, b -> new ArrayList<Run>()).add(run);
+				byImbalance.computeIfAbsent(run.instance.imbalance, d -> new TreeMap<Integer, List<Run>>())
+						.computeIfAbsent(run.instance.bits, b -> new ArrayList<Run>()).add(run);
+			}
+
+			out.write("  \"scaling\": {\n");
+			out.write("    \"all\": ");
+			writeCurve(out, all);
+			for (Integer imbalance : byImbalance.keySet()) {
+				out.write(",\n    \"imbalance " + imbalance + "\": ");
+				writeCurve(out, byImbalance.get(imbalance));
+			}
+			out.write("\n  }\n}\n");
+		}
+	}
+
+	// one point for every bit length
+	private static void writeCurve(Writer out, TreeMap<Integer, List<Run>> byBits) throws IOException {
+		out.write("[");
+		boolean first = true;
+		for (Integer bits : byBits.keySet()) {
+			List<Run> runs = byBits.get(bits);
+			long[] millis = new long[runs.size()];
+			int solved = 0;
+			long cycles = 0;
+			long peakHeap = 0;
+			for (int r = 0; r < millis.length; ++r) {
+				Run run = runs.get(r);
+				millis[r] = run.readMillis + run.solveMillis;
+				if (run.solved)
+					++solved;
+				cycles += run.cycles;
+				peakHeap = Math.max(peakHeap, run.peakHeap);
+			}
+			Arrays.sort(millis);
+
+			out.write(first ? "\n" : ",\n");
+			first = false;
+			out.write(String.format(Locale.ROOT,
+					"      {\"bits\": %d, \"instances\": %d, \"solveRate\": %.3f, \"medianMillis\": %d, "
+							+ "\"maxMillis\": %d, \"meanCycles\": %.1f, \"maxPeakHeap\": %d}",
+					bits, runs.size(), (double) solved / runs.size(), millis[millis.length / 2],
+					millis[millis.length - 1], (double) cycles / runs.size(), peakHeap));
+		}
+		out.write("\n    ]");
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Benchmark &lt;directory&gt; &lt;report.json&gt; [time limit in seconds]
+	 * [bit lengths] [imbalances] [instances per cell] [seed] [features]</br>
+	 * Lists are separated by commas; the features are among symmetry, circuit,
+	 * substitution and localsearch.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage: Benchmark <directory> <report.json> [time limit in seconds] [bit lengths]"
+					+ " [imbalances] [instances per cell] [seed] [features]");
+			return;
+		}
+		long timeLimit = args.length > 2 ? Long.parseLong(args[2]) * 1000 : 60000;
+		int[] bits = args.length > 3 ? parseList(args[3]) : DEFAULT_BITS;
+		int[] imbalances = args.length > 4 ? parseList(args[4]) : DEFAULT_IMBALANCES;
+		int perCell = args.length > 5 ? Integer.parseInt(args[5]) : 3;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+		List<String> features = args.length > 7 ? Arrays.asList(args[7].split(",")) : new ArrayList<String>();
+
+		Benchmark benchmark = new Benchmark(args[0], seed);
+		List<Instance> instances = benchmark.generate(bits, imbalances, perCell);
+
+		List<Run> runs = benchmark.run(instances,
+				() -> new SolveOptions().setVerbose(false).setTimeLimit(timeLimit)
+						.setSymmetryBreaking(features.contains("symmetry")).setCircuitSweep(features.contains("circuit"))
+						.setSubstitution(features.contains("substitution"))
+						.setLocalSearch(features.contains("localsearch") ? 1000000 : 0));
+
+		writeReport(runs, "time limit " + timeLimit + " ms, seed " + seed + ", features " + features, args[1]);
+	}
+
+	private static int[] parseList(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+}
@@ -0,0 +1,227 @@
+package Solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoints of a long solve(), in a memory-mapped file with two slots
+ * written alternately: a crash while one slot is written leaves the other
+ * one valid.</br>
+ * A checkpoint is what the cycles have found so far: the length difference
+ * being tried, the number of cycles and, for every variable, the root of its
+ * component and the root of the enemy component. The values of the
+ * variables are in it, as relations with the constants. The groups of
+ * clauses and the variables assigned to them are not saved: on resume the
+ * relations are applied again to the clauses as they were read and the cycles
+ * reduce them again, what probing found is already in the relations.</br>
+ * The solver only copies the two arrays (see {@link State}); the copy is
+ * written and forced to disk by a background thread, and if the thread is
+ * still busy when the next one arrives the older copy is dropped.</br>
+ * Slot layout: magic, version, sequence (long), number of variables, bit
+ * length and hash of N, length difference, cycles, root[], enemy[], CRC32 of
+ * everything before it.
+ */
+class CheckpointFile implements Closeable {
+
+	private static final int MAGIC = 0x52534143; // "RSAC"
+	private static final int VERSION = 1;
+	private static final int HEADER = 4 + 4 + 8 + 4 + 4 + 4 + 4 + 4;
+	// longest wait for the last checkpoint on close, in milliseconds
+	private static final long CLOSE_TIMEOUT = 10000;
+	// marks the end of the checkpoints
+	private static final State END = new State(0, 0, new int[0], new int[0]);
+
+	/**
+	 * A copy of the relations, taken by the solver thread.
+	 */
+	static class State {
+		final int diff;
+		final int nCycles;
+		// root[i] = root of the component of i
+		final int[] root;
+		// enemy[i] = root of the enemy component if i is a root, -1 otherwise
+		final int[] enemy;
+
+		State(int diff, int nCycles, int[] root, int[] enemy) {
+			this.diff = diff;
+			this.nCycles = nCycles;
+			this.root = root;
+			this.enemy = enemy;
+		}
+	}
+
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private int slotSize;
+	private int nVars;
+	private BigInteger n;
+	// number of checkpoints written, the slot is sequence % 2
+	private long sequence;
+	private BlockingQueue<State> pending = new ArrayBlockingQueue<State>(1);
+	private Thread writer;
+
+	/**
+	 * Opens (or creates) the file of the checkpoints of a problem and starts
+	 * the writer. The checkpoints already in the file are kept until they are
+	 * overwritten.
+	 */
+	CheckpointFile(String path, int nVars, BigInteger n) throws IOException {
+		this.nVars = nVars;
+		this.n = n;
+		slotSize = HEADER + 8 * nVars + 8;
+
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+
+		// continue the sequence of the file, so the newest slot stays the newest
+		for (int slot = 0; slot < 2; ++slot)
+			if (isValid(map, slot * slotSize, nVars, n))
+				sequence = Math.max(sequence, map.getLong(slot * slotSize + 8) + 1);
+
+		writer = new Thread(this::writeLoop, "checkpoint-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Hands a copy to the writer without waiting; a copy not written yet is
+	 * replaced.
+	 */
+	void offer(State state) {
+		while (!pending.offer(state))
+			pending.poll();
+	}
+
+	private void writeLoop() {
+		try {
+			while (true) {
+				State state = pending.take();
+				if (state == END)
+					return;
+				write(state);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// the solver goes on without checkpoints
+			System.err.println("ERROR: checkpoint not written: " + e);
+		}
+	}
+
+	private void write(State state) {
+
+		int base = (int) (sequence % 2) * slotSize;
+		ByteBuffer slot = map.duplicate();
+		slot.position(base);
+
+		slot.putInt(MAGIC);
+		slot.putInt(VERSION);
+		slot.putLong(sequence);
+		slot.putInt(nVars);
+		slot.putInt(n.bitLength());
+		slot.putInt(n.hashCode());
+		slot.putInt(state.diff);
+		slot.putInt(state.nCycles);
+		for (int i = 0; i < nVars; ++i)
+			slot.putInt(state.root[i]);
+		for (int i = 0; i < nVars; ++i)
+			slot.putInt(state.enemy[i]);
+		slot.putLong(crc(map, base, slotSize - 8));
+
+		map.force();
+		++sequence;
+	}
+
+	/**
+	 * Writes the last checkpoint offered, stops the writer and closes the file.
+	 * A writer stopped by an error, or still busy after CLOSE_TIMEOUT, does not
+	 * keep the solver waiting: the copy not written is dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		long deadline = System.nanoTime() + CLOSE_TIMEOUT * 1000000;
+		try {
+			while (!pending.offer(END, 10, TimeUnit.MILLISECONDS))
+				if (!writer.isAlive() || System.nanoTime() > deadline)
+					pending.clear();
+			writer.join(Math.max(1, (deadline - System.nanoTime()) / 1000000));
+			if (writer.isAlive())
+				System.err.println("ERROR: last checkpoint not written in " + CLOSE_TIMEOUT + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the newest valid checkpoint of a problem.
+	 *
+	 * @return The checkpoint, null if the file does not exist or has no valid
+	 *         checkpoint of this problem.
+	 */
+	static State read(String path, int nVars, BigInteger n) throws IOException {
+
+		Path file = Paths.get(path);
+		int slotSize = HEADER + 8 * nVars + 8;
+		if (!Files.exists(file) || Files.size(file) < 2L * slotSize)
+			return null;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, 2L * slotSize);
+
+			int newest = -1;
+			for (int slot = 0; slot < 2; ++slot) {
+				if (!isValid(map, slot * slotSize, nVars, n))
+					continue;
+				if (newest == -1 || map.getLong(slot * slotSize + 8) > map.getLong(newest * slotSize + 8))
+					newest = slot;
+			}
+			if (newest == -1)
+				return null;
+
+			ByteBuffer slot = map.duplicate();
+			slot.position(newest * slotSize + 28);
+			int diff = slot.getInt();
+			int nCycles = slot.getInt();
+			int[] root = new int[nVars];
+			int[] enemy = new int[nVars];
+			for (int i = 0; i < nVars; ++i)
+				root[i] = slot.getInt();
+			for (int i = 0; i < nVars; ++i)
+				enemy[i] = slot.getInt();
+
+			return new State(diff, nCycles, root, enemy);
+		}
+	}
+
+	// complete slot of the same problem
+	private static boolean isValid(ByteBuffer map, int base, int nVars, BigInteger n) {
+		int slotSize = HEADER + 8 * nVars + 8;
+		return map.getInt(base) == MAGIC && map.getInt(base + 4) == VERSION && map.getInt(base + 16) == nVars
+				&& map.getInt(base + 20) == n.bitLength() && map.getInt(base + 24) == n.hashCode()
+				&& map.getLong(base + slotSize - 8) == crc(map, base, slotSize - 8);
+	}
+
+	private static long crc(ByteBuffer map, int base, int length) {
+		ByteBuffer bytes = map.duplicate();
+		bytes.position(base);
+		bytes.limit(base + length);
+		CRC32 ret = new CRC32();
+		ret.update(bytes);
+		return ret.getValue();
+	}
+}
@@ -0,0 +1,221 @@
+package Solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recovers the gates of the multiplier from the groups and finds the
+ * variables that are the same function of the inputs.</br>
+ * A group of 3 columns is a gate when one column is a function of the other
+ * two (the Tseitin encoding of AND and XOR with any polarity): that column is
+ * the output, the one with the highest id if there are several (every column
+ * of a XOR). Every variable gets a literal of a {@link GateGraph}: the
+ * constant if its value is known, the literal of the representative of its
+ * component (complemented for the enemy component), the gate of its group or
+ * else a new input. Gates that would close a cycle are cut with a new input.
+ * </br>
+ * Variables with the same literal are equal, with complemented literals
+ * different, with a constant literal known: the facts are added to the
+ * problem, and the cycles then reduce the groups with them.
+ */
+class CircuitSweep {
+
+	private Problem problem;
+	private QUForest qu;
+	private int nVars;
+
+	// gate of each variable: truth table (-1 if none) and the inputs
+	private int[] table;
+	private int[] inputA;
+	private int[] inputB;
+
+	CircuitSweep(Problem problem) {
+		this.problem = problem;
+		this.qu = problem.getQu();
+		this.nVars = problem.getnTotVars();
+	}
+
+	/**
+	 *
+	 * @return Number of new facts added to the problem.
+	 */
+	int sweep() {
+		findGates();
+		int[] literal = buildGraph();
+		return apply(literal);
+	}
+
+	private void findGates() {
+
+		table = new int[nVars];
+		inputA = new int[nVars];
+		inputB = new int[nVars];
+		Arrays.fill(table, -1);
+
+		List<Clause> clauses = problem.getClauses();
+		for (Clause s : clauses) {
+			if (s.nColumns() != 3)
+				continue;
+			int models = s.models();
+
+			// outputs tried from the highest id
+			Integer[] columns = { 0, 1, 2 };
+			Arrays.sort(columns, (x, y) -> Integer.compare(s.getVar(x), s.getVar(y)));
+			for (int k = 2; k >= 0; --k) {
+				int o = columns[k];
+				int gate = gateTable(models, o);
+				if (gate == -1 || table[s.getVar(o)] != -1)
+					continue;
+
+				int a = o == 0 ? 1 : 0;
+				int b = o == 2 ? 1 : 2;
+				table[s.getVar(o)] = gate;
+				inputA[s.getVar(o)] = s.getVar(a);
+				inputB[s.getVar(o)] = s.getVar(b);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param models
+	 *            the models of a group of 3 columns.
+	 * @return The truth table of column o as a function of the other two (the
+	 *         lower column first), -1 if it is not a function of them.
+	 */
+	static int gateTable(int models, int o) {
+
+		int a = o == 0 ? 1 : 0;
+		int b = o == 2 ? 1 : 2;
+		int ret = 0;
+
+		for (int va = 0; va < 2; ++va)
+			for (int vb = 0; vb < 2; ++vb) {
+				int inputs = va << a | vb << b;
+				boolean zero = (models >> inputs & 1) == 1;
+				boolean one = (models >> (inputs | 1 << o) & 1) == 1;
+				if (zero == one)
+					return -1;
+				if (one)
+					ret |= 1 << (va + 2 * vb);
+			}
+		return ret;
+	}
+
+	/**
+	 * Gives a literal to every variable, visiting the dependencies first
+	 * with an explicit stack (the chains of the adders are long).
+	 */
+	private int[] buildGraph() {
+
+		GateGraph graph = new GateGraph();
+		int[] literal = new int[nVars];
+		// 0 not visited, 1 waiting for its dependencies, 2 done
+		byte[] state = new byte[nVars];
+		// variables whose gate closes a cycle, they become inputs
+		boolean[] cut = new boolean[nVars];
+		int[] stack = new int[16];
+
+		for (int start = 0; start < nVars; ++start) {
+			if (state[start] == 2)
+				continue;
+			int top = 0;
+			stack[top++] = start;
+
+			while (top > 0) {
+				int v = stack[top - 1];
+				if (state[v] == 2) {
+					--top;
+					continue;
+				}
+
+				int[] deps = dependencies(v, cut[v]);
+
+				if (state[v] == 0) {
+					state[v] = 1;
+					for (int d : deps)
+						if (state[d] == 1)
+							cut[v] = true;
+					if (!cut[v]) {
+						if (top + deps.length > stack.length)
+							stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + deps.length));
+						for (int d : deps)
+							if (state[d] == 0)
+								stack[top++] = d;
+						continue;
+					}
+				}
+
+				literal[v] = literal(graph, v, cut[v], literal);
+				state[v] = 2;
+				--top;
+			}
+		}
+		return literal;
+	}
+
+	// variables the literal of v is made from
+	private int[] dependencies(int v, boolean cut) {
+		if (cut || problem.fixedValue(v) != 0)
+			return new int[0];
+		int representative = representative(v);
+		if (representative != v)
+			return new int[] { representative };
+		if (table[v] != -1)
+			return new int[] { inputA[v], inputB[v] };
+		return new int[0];
+	}
+
+	private int literal(GateGraph graph, int v, boolean cut, int[] literal) {
+		int value = problem.fixedValue(v);
+		if (value != 0)
+			return value == 1 ? GateGraph.TRUE : GateGraph.FALSE;
+		if (cut)
+			return graph.input();
+		int representative = representative(v);
+		if (representative != v)
+			return literal[representative] ^ (qu.connected(v, representative) ? 0 : 1);
+		if (table[v] != -1)
+			return graph.function(table[v], literal[inputA[v]], literal[inputB[v]]);
+		return graph.input();
+	}
+
+	// the smaller root of the component of v and of its enemy
+	private int representative(int v) {
+		int root = qu.find(v);
+		int enemy = qu.enemyRoot(v);
+		return enemy == -1 || root < enemy ? root : enemy;
+	}
+
+	private int apply(int[] literal) {
+
+		int nFacts = 0;
+		// node -> first variable with that node
+		Map<Integer, Integer> first = new HashMap<Integer, Integer>();
+
+		for (int v = 0; v < nVars && !problem.hasConflict(); ++v) {
+			if (problem.fixedValue(v) != 0)
+				continue;
+
+			if (literal[v] == GateGraph.TRUE || literal[v] == GateGraph.FALSE) {
+				problem.assignVariable(v, literal[v] == GateGraph.TRUE);
+				++nFacts;
+				continue;
+			}
+
+			Integer u = first.putIfAbsent(literal[v] >> 1, v);
+			if (u == null)
+				continue;
+			if (literal[u] == literal[v] && !qu.connected(u, v)) {
+				problem.union(u, v);
+				++nFacts;
+			} else if (literal[u] != literal[v] && !qu.areEnemy(u, v)) {
+				problem.disj(u, v);
+				++nFacts;
+			}
+		}
+		return nFacts;
+	}
+}
@@ -1,21 +1,56 @@
 package Solver;
 
-import java.net.ConnectException;
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedMap;
-import java.util.stream.Collectors;
 
 public class Clause {
 
 	private Problem problem;
-	// are the vars (column) in the clause. They start from id=0.
-	private List<Integer> vars = new ArrayList<Integer>();
-
-	private List<List<Boolean>> signs = new ArrayList<List<Boolean>>();
+	// are the vars (column) in the clause. They start from id=0. Null when packed in an arena.
+	private int[] vars;
+	// number of columns still in use in vars
+	private int nColumns;
+
+	// one int for each row: bit j is the sign of column j (1 = positive, 0 = negative). Null when packed.
+	private int[] signs = new int[4];
+	// number of rows still in use in signs
+	private int nRows;
+
+	// off-heap storage of vars and signs after pack(), null if they are on the heap
+	private ClauseArena arena;
+	// address of the columns and of the rows in the arena
+	private int varsAddress, signsAddress;
+	// columns and rows reserved in the arena
+	private int varsCapacity, signsCapacity;
 
 	private GroupType groupType;
+	// position of the group in the list read from the file, breaks the ties when sorting
+	private int order;
+
+	// TWO_BY_TWO[signs[0] | signs[1] << 2] = result of solveClauseTwoByTwo()
+	private static final int[] TWO_BY_TWO = new int[16];
+	// GROUP_TYPE[set] = type of a group of at most 3 columns whose rows are the
+	// bits of set (bit r for the row with signs r), each row once
+	private static final GroupType[] GROUP_TYPE = new GroupType[256];
+
+	static {
+		for (int key = 0; key < 16; ++key)
+			TWO_BY_TWO[key] = twoByTwoAction((key & 1) != 0, (key & 2) != 0, (key & 4) != 0, (key & 8) != 0);
+
+		for (int set = 0; set < 256; ++set) {
+			int nTrue = 0;
+			for (int row = 0; row < 8; ++row)
+				if ((set >> row & 1) == 1)
+					nTrue += Integer.bitCount(row);
+			GROUP_TYPE[set] = nTrue == 5 ? GroupType.MostFalse : GroupType.MostTrue;
+		}
+	}
+	// refresh of the RelationCache in which no relation was found between the columns, -1 if none
+	private int noRelationAt = -1;
+	// columns and rows as read, kept for the deletions of the proof, null if not kept
+	private int[] originalVars;
+	private int[] originalRows;
 
 	/**
 	 * Accepts normal variables that will be decreased of 1.
@@ -24,35 +59,164 @@ public class Clause {
 	 *            in normal form (starting from 1).
 	 */
 	public Clause(List<Integer> variables, Problem problem) {
-		vars = variables.stream().map(s -> Math.abs(s) - 1).collect(Collectors.toList());
+		vars = new int[variables.size()];
+		for (int j = 0; j < vars.length; ++j)
+			vars[j] = Math.abs(variables.get(j)) - 1;
+		nColumns = vars.length;
+		this.problem = problem;
+	}
+
+	/**
+	 * Same as {@link #Clause(List, Problem)} with the literals
+	 * {@code literals[from..to-1]}.
+	 */
+	Clause(int[] literals, int from, int to, Problem problem) {
+		vars = new int[to - from];
+		for (int j = 0; j < vars.length; ++j)
+			vars[j] = Math.abs(literals[from + j]) - 1;
+		nColumns = vars.length;
 		this.problem = problem;
 	}
 
+	/**
+	 * Copies the clause for another instance of the problem (used to work on
+	 * thread-local copies).
+	 */
+	Clause(Clause other, Problem problem) {
+		vars = new int[other.varsCapacity()];
+		for (int j = 0; j < vars.length; ++j)
+			vars[j] = other.var(j);
+		nColumns = other.nColumns;
+		signs = new int[Math.max(1, other.signsCapacity())];
+		for (int i = 0; i < other.signsCapacity(); ++i)
+			signs[i] = other.row(i);
+		nRows = other.nRows;
+		groupType = other.groupType;
+		order = other.order;
+		originalVars = other.originalVars;
+		originalRows = other.originalRows;
+		this.problem = problem;
+	}
+
+	/**
+	 * Keeps a copy of the columns and rows as they are now, before the solver
+	 * changes them.
+	 */
+	void keepOriginal() {
+		originalVars = new int[nColumns];
+		for (int j = 0; j < nColumns; ++j)
+			originalVars[j] = var(j);
+		originalRows = new int[nRows];
+		for (int i = 0; i < nRows; ++i)
+			originalRows[i] = row(i);
+	}
+
+	int[] getOriginalVars() {
+		return originalVars;
+	}
+
+	int[] getOriginalRows() {
+		return originalRows;
+	}
+
+	/**
+	 * Moves the columns and the rows to the arena, the arrays on the heap are
+	 * released. No row can be inserted after this call.
+	 */
+	void pack(ClauseArena arena) {
+		varsCapacity = vars.length;
+		signsCapacity = nRows;
+		varsAddress = arena.allocate(varsCapacity);
+		signsAddress = arena.allocate(signsCapacity);
+		for (int j = 0; j < varsCapacity; ++j)
+			arena.set(varsAddress + j, vars[j]);
+		for (int i = 0; i < signsCapacity; ++i)
+			arena.set(signsAddress + i, signs[i]);
+		this.arena = arena;
+		vars = null;
+		signs = null;
+	}
+
+	private int varsCapacity() {
+		return arena == null ? vars.length : varsCapacity;
+	}
+
+	private int signsCapacity() {
+		return arena == null ? signs.length : signsCapacity;
+	}
+
+	private int var(int j) {
+		return arena == null ? vars[j] : arena.get(varsAddress + j);
+	}
+
+	private void setVar(int j, int id) {
+		if (arena == null)
+			vars[j] = id;
+		else
+			arena.set(varsAddress + j, id);
+	}
+
+	/**
+	 * 
+	 * @return The signs of the given row, bit j for column j.
+	 */
+	int row(int i) {
+		return arena == null ? signs[i] : arena.get(signsAddress + i);
+	}
+
+	private void setRow(int i, int row) {
+		if (arena == null)
+			signs[i] = row;
+		else
+			arena.set(signsAddress + i, row);
+	}
+
 	public static enum GroupType {
 		MostTrue, MostFalse
 	};
 
 	public void insertRow(List<Integer> values) {
 
-		if (values.size() > 3)
+		int[] literals = new int[values.size()];
+		for (int i = 0; i < literals.length; ++i)
+			literals[i] = values.get(i);
+
+		insertRow(literals, 0, literals.length);
+	}
+
+	/**
+	 * Same as {@link #insertRow(List)} with the literals
+	 * {@code literals[from..to-1]}.
+	 */
+	void insertRow(int[] literals, int from, int to) {
+
+		if (to - from > 3)
 			return; // error
 
-		List<Boolean> tmpSigns = new ArrayList<Boolean>();
+		if (arena != null)
+			throw new IllegalStateException("rows cannot be inserted in a packed clause");
 
-		values.stream().forEach(s -> {
-			tmpSigns.add(tmpSigns.size(), new Boolean((s.intValue() > 0 ? true : false)));
-		});
-		signs.add(signs.size(), tmpSigns);
+		int row = 0;
+		for (int i = from; i < to; ++i) {
+			int column = columnOf(Math.abs(literals[i]) - 1);
+			if (column == -1)
+				return; // error
+			if (literals[i] > 0)
+				row |= 1 << column;
+		}
+
+		if (nRows == signs.length)
+			signs = Arrays.copyOf(signs, nRows * 2);
+		signs[nRows++] = row;
 	}
 
 	public String print() {
 		StringBuilder ret = new StringBuilder();
 
-		for (int i = 0; i < signs.size(); ++i) {
-			for (int j = 0; j < vars.size(); ++j) {
+		for (int i = 0; i < nRows; ++i) {
+			for (int j = 0; j < nColumns; ++j) {
 
-				List<Boolean> tmpBV = signs.get(i);
-				ret.append(String.format("%s%d ", (tmpBV.get(j) ? " " : "-"), vars.get(j).intValue()));
+				ret.append(String.format("%s%d ", (getSign(i, j) ? " " : "-"), problem.originalId(var(j))));
 
 			}
 			ret.append("\n");
@@ -62,17 +226,24 @@ public class Clause {
 	}
 
 	public boolean hasTheseVars(List<Integer> vars) {
-		// System.out.println("Inside hasTheVars():\nvars: "+vars+"\nclauseVars:
-		// "+this.vars);
-		return vars.stream().filter(s -> !this.vars.contains(Math.abs(s) - 1)).count() == 0;
+		for (int i = 0; i < vars.size(); ++i)
+			if (columnOf(Math.abs(vars.get(i)) - 1) == -1)
+				return false;
+		return true;
 	}
 
 	public int getNumInternalClauses() {
-		return signs.size();
+		return nRows;
 	}
 
-	public List<Integer> getVars() {
-		return vars;
+	/**
+	 * 
+	 * @param column
+	 *            the position of the variable, between 0 and nColumns()-1.
+	 * @return The id of the variable in that column.
+	 */
+	public int getVar(int column) {
+		return var(column);
 	}
 
 	/**
@@ -81,7 +252,7 @@ public class Clause {
 	 *         otherwise.
 	 */
 	public boolean isMonoClause() {
-		return vars.size() == 1 && signs.size() == 1;
+		return nColumns == 1 && nRows == 1;
 	}
 
 	/**
@@ -89,7 +260,7 @@ public class Clause {
 	 * @return True if the only variable inside is positive, false otherwise.
 	 */
 	public boolean isPositiveMonoClause() {
-		return signs.get(0).get(0);
+		return getSign(0, 0);
 	}
 
 	/**
@@ -97,7 +268,7 @@ public class Clause {
 	 * @return True if the only variable inside is negative, false otherwise.
 	 */
 	public boolean isNegativeMonoClause() {
-		return !signs.get(0).get(0);
+		return !getSign(0, 0);
 	}
 
 	/**
@@ -105,36 +276,187 @@ public class Clause {
 	 * @return The id of the only variable inside the clause.
 	 */
 	public int getVarOfMonoClause() {
-		return vars.get(0);
+		return var(0);
 	}
 
-	public List<List<Boolean>> getSigns() {
-		return signs;
+	/**
+	 * 
+	 * @return True if the variable in the given column is positive in the given
+	 *         row, false otherwise.
+	 */
+	public boolean getSign(int row, int column) {
+		return (row(row) & (1 << column)) != 0;
 	}
 
+	/**
+	 * 
+	 * @return The position of the variable in the clause, -1 if it is not
+	 *         contained. At most 3 columns are scanned.
+	 */
+	private int columnOf(int id) {
+		for (int j = 0; j < nColumns; ++j)
+			if (var(j) == id)
+				return j;
+		return -1;
+	}
+
+	/**
+	 * Removes the variable from the clause. Rows satisfied by the value are
+	 * dropped, the others lose the column. The rows are filtered in place with
+	 * a write cursor, so nothing is allocated.
+	 */
 	public void assignVariable(int id, boolean value) {
 
-		int column = vars.indexOf(id);
+		int column = columnOf(id);
+		if (column == -1)
+			return;
 
-		// System.out.println("PRIMA:\n"+this.print());
-		for (int i = 0; i < signs.size(); ++i) {
+		problem.getTrail().recordClause(this, nColumns, nRows, column, id);
 
-			if (signs.get(i).get(column) == value) {
-				signs.remove(i);
-				--i; // to check;
-			} else {
-				signs.get(i).remove(column);
-			}
+		int bit = 1 << column;
+		int lowBits = bit - 1;
+		int write = 0;
+
+		for (int read = 0; read < nRows; ++read) {
+			int row = row(read);
 
+			if (((row & bit) != 0) == value)
+				continue; // row satisfied
+
+			// drop the column: bits on its right stay, bits on its left move by one
+			setRow(write++, (row & lowBits) | ((row >>> 1) & ~lowBits));
 		}
+		nRows = write;
+
+		for (int j = column + 1; j < nColumns; ++j)
+			setVar(j - 1, var(j));
+		--nColumns;
+	}
 
-		vars.remove(column);
+	// removes a row keeping the order of the others
+	private void removeRow(int row) {
+		problem.getTrail().recordClause(this, nColumns, nRows, -1, -1);
+		for (int i = row + 1; i < nRows; ++i)
+			setRow(i - 1, row(i));
+		--nRows;
+	}
 
-		// System.out.println("DOPO:\n"+this.print());
+	/**
+	 * Gives the variables their new ids.
+	 * 
+	 * @param newId
+	 *            newId[i] is the new id of variable i.
+	 */
+	void renumber(int[] newId) {
+		for (int j = 0; j < nColumns; ++j)
+			setVar(j, newId[var(j)]);
+		noRelationAt = -1;
+	}
+
+	/**
+	 * Merges the columns of the same class: when two columns have the same
+	 * representative, every column j becomes representative[var(j)], negated
+	 * if flipped[var(j)], the rows that then contain a variable and its
+	 * negation are dropped and so are the repeated rows. Groups without two
+	 * columns of the same class are left as they are, the rules of the 4x3
+	 * groups depend on the order of their rows and columns.
+	 * 
+	 * @return True if the clause has changed.
+	 */
+	boolean substitute(int[] representative, boolean[] flipped) {
+
+		// column of the merged group of every column, in order of first occurrence
+		int[] newVars = new int[nColumns];
+		int[] target = new int[nColumns];
+		int k = 0;
+		for (int j = 0; j < nColumns; ++j) {
+			int r = representative[var(j)];
+			int c = 0;
+			while (c < k && newVars[c] != r)
+				++c;
+			if (c == k)
+				newVars[k++] = r;
+			target[j] = c;
+		}
+		if (k == nColumns)
+			return false;
+
+		int[] newRows = new int[nRows];
+		int n = 0;
+		rows: for (int i = 0; i < nRows; ++i) {
+			int row = row(i);
+			int out = 0;
+			int seen = 0;
+			for (int j = 0; j < nColumns; ++j) {
+				int c = target[j];
+				int bit = (row >> j & 1) ^ (flipped[var(j)] ? 1 : 0);
+				if ((seen >> c & 1) == 1) {
+					if ((out >> c & 1) != bit)
+						continue rows; // x or not x
+					continue;
+				}
+				out |= bit << c;
+				seen |= 1 << c;
+			}
+			for (int h = 0; h < n; ++h)
+				if (newRows[h] == out)
+					continue rows;
+			newRows[n++] = out;
+		}
+
+		problem.getTrail().recordClause(this, nColumns, nRows, -1, -1);
+		problem.getTrail().recordColumns(this);
+
+		for (int j = 0; j < k; ++j)
+			setVar(j, newVars[j]);
+		nColumns = k;
+		for (int i = 0; i < n; ++i)
+			setRow(i, newRows[i]);
+		nRows = n;
+		noRelationAt = -1;
+		evaluateGroupType();
+		return true;
+	}
+
+	/**
+	 * Puts back the columns saved by {@code Trail.recordColumns()}.
+	 */
+	void restoreColumns(int nColumns, int[] vars, int offset, GroupType groupType) {
+		for (int j = 0; j < nColumns; ++j)
+			setVar(j, vars[offset + j]);
+		this.nColumns = nColumns;
+		this.groupType = groupType;
+		noRelationAt = -1;
+	}
+
+	/**
+	 * Puts back the state saved by {@code Trail.recordClause()}.
+	 */
+	void restore(int nColumns, int nRows, int removedColumn, int removedId, int[] rows, int offset) {
+
+		if (removedColumn != -1) {
+			for (int j = nColumns - 1; j > removedColumn; --j)
+				setVar(j, var(j - 1));
+			setVar(removedColumn, removedId);
+		}
+		this.nColumns = nColumns;
+
+		for (int i = 0; i < nRows; ++i)
+			setRow(i, rows[offset + i]);
+		this.nRows = nRows;
 	}
 
 	public boolean isSolved() {
-		return (signs.size() == 0 || vars.size()==0);
+		return (nRows == 0 || nColumns == 0);
+	}
+
+	/**
+	 * 
+	 * @return True if every variable has been assigned but some rows are still
+	 *         not satisfied, so the assignment is contradictory.
+	 */
+	public boolean isFalsified() {
+		return nColumns == 0 && nRows > 0;
 	}
 
 	public int totSize() {
@@ -142,11 +464,24 @@ public class Clause {
 	}
 
 	public int nColumns() {
-		return vars.size();
+		return nColumns;
 	}
 	
 	public int nRows() {
-		return signs.size();
+		return nRows;
+	}
+
+	/**
+	 * Only for clauses with at most {@code GroupTable.MAX_COLUMNS} columns.
+	 * 
+	 * @return The assignments of the columns that satisfy every row (see
+	 *         GroupTable).
+	 */
+	int models() {
+		int ret = GroupTable.all(nColumns);
+		for (int i = 0; i < nRows; ++i)
+			ret &= GroupTable.rowModels(nColumns, row(i));
+		return ret;
 	}
 
 	/**
@@ -162,46 +497,46 @@ public class Clause {
 	 * 		-1 for... ERROR ..
 	 */
 	public int solveClauseTwoByTwo() {
+		return TWO_BY_TWO[row(0) | row(1) << 2];
+	}
 
-		List<Boolean> row0 = signs.get(0);
-		List<Boolean> row1 = signs.get(1);
+	// action of a 2x2 group with the signs s(row)(column), see solveClauseTwoByTwo()
+	private static int twoByTwoAction(boolean s00, boolean s01, boolean s10, boolean s11) {
 
 		/*
 		 * case 0: union x -y -x y or -x y x -y
 		 */
-		if ((row0.get(0) && !row0.get(1) && !row1.get(0) && row1.get(1))
-				|| (!row0.get(0) && row0.get(1) && row1.get(0) && !row1.get(1)))
+		if ((s00 && !s01 && !s10 && s11) || (!s00 && s01 && s10 && !s11))
 			return 0;
 
 		/*
 		 * case 1: disjunction x y -x -y or -x -y x y
 		 */
-		if ((row0.get(0) && row0.get(1) && !row1.get(0) && !row1.get(1))
-				|| (!row0.get(0) && !row0.get(1) && row1.get(0) && row1.get(1)))
+		if ((s00 && s01 && !s10 && !s11) || (!s00 && !s01 && s10 && s11))
 			return 1;
 
 		/*
 		 * case 2: first variable equal to false -x y -x -y
 		 */
-		if (!row0.get(0) && !row1.get(0))
+		if (!s00 && !s10)
 			return 2;
 
 		/*
 		 * case 3: first variable equal to true x y x -y
 		 */
-		if (row0.get(0) && row1.get(0))
+		if (s00 && s10)
 			return 3;
 
 		/*
 		 * case 4: second variable equal to false x -y -x -y
 		 */
-		if (!row0.get(1) && !row1.get(1))
+		if (!s01 && !s11)
 			return 4;
 
 		/*
 		 * case 5: second variable equal to true x y -x y
 		 */
-		if (row0.get(1) && row1.get(1))
+		if (s01 && s11)
 			return 5;
 
 		return -1;
@@ -210,12 +545,13 @@ public class Clause {
 	public void emptyVarOfClause() {
 
 		SortedMap<Integer, Variable> tmpMap = problem.getVarsMap();
+		problem.getTrail().recordClause(this, nColumns, nRows, -1, -1);
 
-		vars.stream().forEach(s -> {
-			tmpMap.get(s).removeClause(this);
-		});
+		for (int j = 0; j < nColumns; ++j)
+			tmpMap.get(var(j)).removeClause(this);
 		
-		vars.clear();
+		nColumns = 0;
+		nRows = 0;
 	}
 
 	/**
@@ -227,9 +563,25 @@ public class Clause {
 
 		QUForest quForest = problem.getQu();
 
-		return (quForest.connected(vars.get(0), vars.get(1)) || quForest.connected(vars.get(0), vars.get(2))
-				|| quForest.connected(vars.get(1), vars.get(2)) || quForest.areEnemy(vars.get(0), vars.get(1))
-				|| quForest.areEnemy(vars.get(0), vars.get(2)) || quForest.areEnemy(vars.get(1), vars.get(2)));
+		return (quForest.connected(var(0), var(1)) || quForest.connected(var(0), var(2))
+				|| quForest.connected(var(1), var(2)) || quForest.areEnemy(var(0), var(1))
+				|| quForest.areEnemy(var(0), var(2)) || quForest.areEnemy(var(1), var(2)));
+	}
+
+	int getOrder() {
+		return order;
+	}
+
+	void setOrder(int order) {
+		this.order = order;
+	}
+
+	int getNoRelationAt() {
+		return noRelationAt;
+	}
+
+	void setNoRelationAt(int refresh) {
+		noRelationAt = refresh;
 	}
 
 	/**
@@ -240,7 +592,20 @@ public class Clause {
 	 */
 	public void evaluateGroupType() {
 
-		long nTrue = signs.stream().flatMap(s -> s.stream()).filter(s -> s.booleanValue()).count();
+		if (nColumns <= 3) {
+			int set = 0;
+			for (int i = 0; i < nRows; ++i)
+				set |= 1 << row(i);
+			if (Integer.bitCount(set) == nRows) {
+				groupType = GROUP_TYPE[set];
+				return;
+			}
+		}
+
+		// larger groups or repeated rows
+		int nTrue = 0;
+		for (int i = 0; i < nRows; ++i)
+			nTrue += Integer.bitCount(row(i));
 		
 		if (nTrue == 5)
 			groupType = GroupType.MostFalse;
@@ -297,34 +662,34 @@ public class Clause {
 		// TODO Auto-generated method stub
 		QUForest quForest = problem.getQu();
 
-		if (quForest.connected(vars.get(0), vars.get(1))) {
-			signs.remove(2);
-			signs.remove(1);
+		if (quForest.connected(var(0), var(1))) {
+			removeRow(2);
+			removeRow(1);
 			return 0;
 		}
-		if (quForest.areEnemy(vars.get(0), vars.get(1))) {
-			signs.remove(3);
-			signs.remove(0);
+		if (quForest.areEnemy(var(0), var(1))) {
+			removeRow(3);
+			removeRow(0);
 			return 1;
 		}
-		if (quForest.connected(vars.get(1), vars.get(2))) {
-			signs.remove(1);
-			signs.remove(0);
+		if (quForest.connected(var(1), var(2))) {
+			removeRow(1);
+			removeRow(0);
 			return 2;
 		}
-		if (quForest.areEnemy(vars.get(1), vars.get(2))) {
-			signs.remove(3);
-			signs.remove(2);
+		if (quForest.areEnemy(var(1), var(2))) {
+			removeRow(3);
+			removeRow(2);
 			return 3;
 		}
-		if (quForest.connected(vars.get(0), vars.get(2))) {
-			signs.remove(2);
-			signs.remove(0);
+		if (quForest.connected(var(0), var(2))) {
+			removeRow(2);
+			removeRow(0);
 			return 4;
 		}
-		if (quForest.areEnemy(vars.get(0), vars.get(2))) {
-			signs.remove(3);
-			signs.remove(1);
+		if (quForest.areEnemy(var(0), var(2))) {
+			removeRow(3);
+			removeRow(1);
 			return 5;
 		}
 
@@ -335,32 +700,32 @@ public class Clause {
 		// TODO Auto-generated method stub
 		QUForest quForest = problem.getQu();
 
-		if (quForest.connected(vars.get(0), vars.get(1))) {
-			signs.remove(2);
-			signs.remove(1);
+		if (quForest.connected(var(0), var(1))) {
+			removeRow(2);
+			removeRow(1);
 			return 0;
 		}
-		if (quForest.areEnemy(vars.get(0), vars.get(1))) {
-			signs.remove(3);
-			signs.remove(0);
+		if (quForest.areEnemy(var(0), var(1))) {
+			removeRow(3);
+			removeRow(0);
 			return 1;
 		}
-		if (quForest.connected(vars.get(1), vars.get(2))) {
-			signs.remove(3);
-			signs.remove(2);
-			signs.remove(0);
+		if (quForest.connected(var(1), var(2))) {
+			removeRow(3);
+			removeRow(2);
+			removeRow(0);
 			return 2;
 		}
-		if (quForest.areEnemy(vars.get(1), vars.get(2))) {
+		if (quForest.areEnemy(var(1), var(2))) {
 			return 3;
 		}
-		if (quForest.connected(vars.get(0), vars.get(2))) {
-			signs.remove(3);
-			signs.remove(1);
-			signs.remove(0);
+		if (quForest.connected(var(0), var(2))) {
+			removeRow(3);
+			removeRow(1);
+			removeRow(0);
 			return 4;
 		}
-		if (quForest.areEnemy(vars.get(0), vars.get(2))) {
+		if (quForest.areEnemy(var(0), var(2))) {
 			return 5;
 		}
 
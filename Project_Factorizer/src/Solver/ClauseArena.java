@@ -0,0 +1,70 @@
+package Solver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for the columns and the rows of the clauses, used by the
+ * memory-bounded mode ({@code Problem.setOffHeap()}).</br>
+ * Ints are kept in direct buffers of {@link #CHUNK_INTS} ints, allocated when
+ * needed, so the garbage collector sees a few large buffers instead of two
+ * arrays for every clause. An address is the chunk in the high bits and the
+ * position inside it in the low ones; a block is never split between two
+ * chunks, so the ints of a block are at consecutive addresses. The 32 bits of
+ * an address reach {@link #MAX_CHUNKS} chunks (16 GB).</br>
+ * The direct memory is limited by {@code -XX:MaxDirectMemorySize} (by default
+ * the maximum heap size).
+ */
+class ClauseArena {
+
+	private static final int CHUNK_BITS = 20;
+	static final int CHUNK_INTS = 1 << CHUNK_BITS;
+	private static final int OFFSET_MASK = CHUNK_INTS - 1;
+	static final int MAX_CHUNKS = 1 << 32 - CHUNK_BITS;
+
+	private IntBuffer[] chunks = new IntBuffer[4];
+	private int nChunks;
+	// ints used in the last chunk
+	private int used = CHUNK_INTS;
+
+	/**
+	 * Reserves n consecutive ints.
+	 *
+	 * @return The address of the first one.
+	 */
+	int allocate(int n) {
+		if (n > CHUNK_INTS)
+			throw new IllegalArgumentException("block of " + n + " ints is larger than a chunk");
+
+		if (used + n > CHUNK_INTS) {
+			if (nChunks == MAX_CHUNKS)
+				throw new IllegalStateException("the arena is full: " + reservedBytes() + " bytes");
+			if (nChunks == chunks.length)
+				chunks = Arrays.copyOf(chunks, nChunks * 2);
+			chunks[nChunks++] = ByteBuffer.allocateDirect(CHUNK_INTS * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+			used = 0;
+		}
+
+		int ret = (nChunks - 1) << CHUNK_BITS | used;
+		used += n;
+		return ret;
+	}
+
+	int get(int address) {
+		return chunks[address >>> CHUNK_BITS].get(address & OFFSET_MASK);
+	}
+
+	void set(int address, int value) {
+		chunks[address >>> CHUNK_BITS].put(address & OFFSET_MASK, value);
+	}
+
+	/**
+	 *
+	 * @return The bytes of direct memory reserved.
+	 */
+	long reservedBytes() {
+		return (long) nChunks * CHUNK_INTS * 4;
+	}
+}
@@ -0,0 +1,318 @@
+package Solver;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Opens the input of {@code Problem.readFile()}, decompressing it if
+ * needed:</br>
+ * .gz -> decompressed on a background thread, so that it overlaps with the
+ * parsing. If the file is made of independent blocks with their size in the
+ * header ({@code BGZF}, as written by bgzip) the blocks are decompressed
+ * concurrently and handed to the parser in order.</br>
+ * .xz, .zst -> decompressed by the {@code xz} or {@code zstd} command in
+ * another process, read on a background thread. The end of the stream waits
+ * for the command, a non-zero exit code is an IOException.</br>
+ * anything else -> read as it is.</br>
+ * Closing a stream before its end stops the thread and the process.
+ */
+public class CompressedInput {
+
+	// size of the chunks read from a sequential stream
+	private static final int CHUNK_SIZE = 1 << 20;
+	// marks the end of the chunks
+	private static final byte[] END = new byte[0];
+
+	/**
+	 *
+	 * @param path
+	 *            The location of the file, compressed or not.
+	 * @return A stream with the decompressed content.
+	 */
+	public static InputStream open(String path) throws IOException {
+
+		if (path.endsWith(".gz")) {
+			if (isBlockGzip(path))
+				return blockGzip(path);
+			return background(new GZIPInputStream(new FileInputStream(path), 1 << 16), null, path);
+		}
+		if (path.endsWith(".xz"))
+			return external(path, "xz");
+		if (path.endsWith(".zst"))
+			return external(path, "zstd");
+
+		return new FileInputStream(path);
+	}
+
+	/**
+	 *
+	 * @return True if the file is decompressed by {@link #open(String)}, so it
+	 *         cannot be read from an arbitrary position.
+	 */
+	public static boolean isCompressed(String path) {
+		return path.endsWith(".gz") || path.endsWith(".xz") || path.endsWith(".zst");
+	}
+
+	// the tool decompresses to its standard output, in parallel with us
+	private static InputStream external(String path, String tool) throws IOException {
+		Process process;
+		try {
+			process = new ProcessBuilder(tool, "-dc", path).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		} catch (IOException e) {
+			throw new IOException("'" + tool + "' is needed to read " + path, e);
+		}
+		return background(process.getInputStream(), process, path);
+	}
+
+	/**
+	 * Reads the stream on another thread, chunk by chunk.
+	 * 
+	 * @param process
+	 *            The process that writes the stream, checked at its end; null
+	 *            if there is none.
+	 */
+	private static InputStream background(InputStream source, Process process, String path) {
+
+		BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<Future<byte[]>>(8);
+
+		Thread reader = new Thread(() -> {
+			try (InputStream in = source) {
+				while (true) {
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int size = 0;
+					int read;
+					while (size < CHUNK_SIZE && (read = in.read(chunk, size, CHUNK_SIZE - size)) != -1)
+						size += read;
+					if (size == 0)
+						break;
+					chunks.put(CompletableFuture.completedFuture(size == CHUNK_SIZE ? chunk : copy(chunk, size)));
+				}
+				if (process != null && process.waitFor() != 0)
+					throw new IOException("Decompression of " + path + " failed with exit code " + process.exitValue());
+				chunks.put(CompletableFuture.completedFuture(END));
+			} catch (IOException e) {
+				putFailure(chunks, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "input-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		return new ChunkInputStream(chunks, reader, process);
+	}
+
+	private static boolean isBlockGzip(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+			byte[] header = new byte[18];
+			in.readFully(header);
+			return blockSize(header) != -1;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @return The total size of the block that starts with the given header
+	 *         (at least 18 bytes), -1 if it is not a BGZF block.
+	 */
+	private static int blockSize(byte[] h) {
+		boolean gzip = (h[0] & 0xff) == 31 && (h[1] & 0xff) == 139 && h[2] == 8;
+		boolean extra = (h[3] & 4) != 0;
+		int xlen = (h[10] & 0xff) | (h[11] & 0xff) << 8;
+		boolean bc = h[12] == 'B' && h[13] == 'C' && h[14] == 2 && h[15] == 0;
+
+		if (!gzip || !extra || xlen != 6 || !bc)
+			return -1;
+		return ((h[16] & 0xff) | (h[17] & 0xff) << 8) + 1;
+	}
+
+	// reads the blocks in order and decompresses them on all the cores
+	private static InputStream blockGzip(String path) throws IOException {
+
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, r -> {
+			Thread t = new Thread(r, "gzip-block");
+			t.setDaemon(true);
+			return t;
+		});
+		BlockingQueue<Future<byte[]>> blocks = new ArrayBlockingQueue<Future<byte[]>>(4 * nThreads);
+		DataInputStream in = new DataInputStream(new FileInputStream(path));
+
+		Thread reader = new Thread(() -> {
+			try {
+				byte[] header = new byte[18];
+				while (readHeader(in, header)) {
+					int size = blockSize(header);
+					if (size == -1)
+						throw new IOException("Not a BGZF block in " + path);
+					byte[] block = new byte[size];
+					System.arraycopy(header, 0, block, 0, header.length);
+					in.readFully(block, header.length, size - header.length);
+					blocks.put(pool.submit(() -> inflateBlock(block)));
+				}
+				blocks.put(CompletableFuture.completedFuture(END));
+			} catch (IOException e) {
+				putFailure(blocks, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pool.shutdown();
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing more to read
+				}
+			}
+		}, "gzip-block-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		return new ChunkInputStream(blocks, reader, null);
+	}
+
+	// false at the end of the file
+	private static boolean readHeader(DataInputStream in, byte[] header) throws IOException {
+		int first = in.read();
+		if (first == -1)
+			return false;
+		header[0] = (byte) first;
+		in.readFully(header, 1, header.length - 1);
+		return true;
+	}
+
+	private static byte[] inflateBlock(byte[] block) throws IOException {
+
+		int n = block.length;
+		int crc = (block[n - 8] & 0xff) | (block[n - 7] & 0xff) << 8 | (block[n - 6] & 0xff) << 16
+				| (block[n - 5] & 0xff) << 24;
+		int isize = (block[n - 4] & 0xff) | (block[n - 3] & 0xff) << 8 | (block[n - 2] & 0xff) << 16
+				| (block[n - 1] & 0xff) << 24;
+
+		byte[] ret = new byte[isize];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, 18, n - 18 - 8);
+			int size = 0;
+			while (size < isize && !inflater.finished()) {
+				int inflated = inflater.inflate(ret, size, isize - size);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				size += inflated;
+			}
+			if (size != isize)
+				throw new IOException("Truncated BGZF block");
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted BGZF block", e);
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 check = new CRC32();
+		check.update(ret, 0, isize);
+		if ((int) check.getValue() != crc)
+			throw new IOException("Wrong CRC in BGZF block");
+
+		return ret;
+	}
+
+	private static byte[] copy(byte[] chunk, int size) {
+		byte[] ret = new byte[size];
+		System.arraycopy(chunk, 0, ret, 0, size);
+		return ret;
+	}
+
+	private static void putFailure(BlockingQueue<Future<byte[]>> queue, IOException e) {
+		CompletableFuture<byte[]> failure = new CompletableFuture<byte[]>();
+		failure.completeExceptionally(e);
+		try {
+			queue.put(failure);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the chunks produced by another thread, in order.
+	 */
+	private static class ChunkInputStream extends InputStream {
+
+		private BlockingQueue<Future<byte[]>> chunks;
+		private byte[] chunk = new byte[0];
+		private int position;
+		private boolean ended;
+		// the thread that fills chunks, and the process it reads (can be null)
+		private Thread reader;
+		private Process process;
+
+		ChunkInputStream(BlockingQueue<Future<byte[]>> chunks, Thread reader, Process process) {
+			this.chunks = chunks;
+			this.reader = reader;
+			this.process = process;
+		}
+
+		// false at the end of the stream
+		private boolean fill() throws IOException {
+			while (!ended && position == chunk.length) {
+				try {
+					chunk = chunks.take().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading", e);
+				} catch (ExecutionException e) {
+					throw new IOException("Error during decompression", e.getCause());
+				}
+				position = 0;
+				ended = chunk == END;
+			}
+			return !ended;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return chunk[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		/**
+		 * Stops the reader, that can be waiting for room in the queue, and the
+		 * process, that can be waiting for room in its pipe.
+		 */
+		@Override
+		public void close() {
+			ended = true;
+			reader.interrupt();
+			if (process != null)
+				process.destroy();
+			chunks.clear();
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package Solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coordinator of worker processes on the same host, for instances too large
+ * for the heap of one JVM.</br>
+ * Every worker is a JVM running {@link FleetWorker} with the classpath of
+ * this one, connected to the coordinator by a loopback socket. A job is a
+ * modulus (a CNF file) with one length difference and, optionally, a cube
+ * over the low bits of p; each worker solves one job at a time and sends back
+ * its {@link SolveResult}.</br>
+ * A refuted job is a learned clause shared by the whole fleet: the jobs
+ * still queued with the same file and length difference whose cube extends
+ * the refuted one are refuted without being sent. When a modulus is solved
+ * the other jobs of the same file are dropped and the running ones
+ * cancelled.</br>
+ * The job of a worker that is lost goes back to the queue for the others;
+ * it is reported as not solved only when no worker is left.</br>
+ * Messages: {@code JOB id job timeLimit}, {@code CANCEL id} and {@code QUIT}
+ * to the worker, {@code id result} back.
+ */
+public class Fleet implements Closeable {
+
+	static final int QUIT = 0;
+	static final int JOB = 1;
+	static final int CANCEL = 2;
+
+	/**
+	 * One sub-problem: a length difference of a modulus, with bits 1..cubeBits
+	 * of p fixed to the bits of cube.
+	 */
+	public static class Job {
+		private String path;
+		private int diff;
+		private int cubeBits;
+		private int cube;
+
+		public Job(String path, int diff, int cubeBits, int cube) {
+			this.path = path;
+			this.diff = diff;
+			this.cubeBits = cubeBits;
+			this.cube = cube;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public int getDiff() {
+			return diff;
+		}
+
+		public int getCubeBits() {
+			return cubeBits;
+		}
+
+		public int getCube() {
+			return cube;
+		}
+
+		// true if every solution of this job is a solution of the refuted one
+		private boolean isCoveredBy(Job refuted) {
+			return path.equals(refuted.path) && diff == refuted.diff && cubeBits >= refuted.cubeBits
+					&& (cube & ((1 << refuted.cubeBits) - 1)) == refuted.cube;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeUTF(path);
+			out.writeInt(diff);
+			out.writeInt(cubeBits);
+			out.writeInt(cube);
+		}
+
+		static Job read(DataInputStream in) throws IOException {
+			return new Job(in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+		}
+
+		@Override
+		public String toString() {
+			return path + " diff " + diff + (cubeBits == 0 ? "" : " cube " + cube + "/" + cubeBits);
+		}
+	}
+
+	/**
+	 * Connection to one worker process.
+	 */
+	private static class Worker {
+		Process process;
+		Socket socket;
+		DataInputStream in;
+		DataOutputStream out;
+		// index of the job being solved, -1 if none
+		volatile int running = -1;
+		// true once its connection failed, it gets no more jobs
+		boolean lost;
+	}
+
+	private List<Worker> workers = new ArrayList<Worker>();
+	// per-job time limit in milliseconds, 0 for no limit
+	private long timeLimit;
+
+	// state of the current run(), guarded by this
+	private List<Job> jobs;
+	private SolveResult[] results;
+	private int nextJob;
+	// jobs of the lost workers, sent again before the next ones
+	private Deque<Integer> requeued;
+	// jobs sent and not done, workers not lost
+	private int nRunning;
+	private int nAlive;
+	private List<Job> refuted;
+	private Set<String> solved;
+
+	/**
+	 * Starts the worker processes and waits for them to connect.
+	 *
+	 * @param jvmOptions
+	 *            Options of the worker JVMs, for example {@code -Xmx8g}.
+	 */
+	public Fleet(int nWorkers, String... jvmOptions) throws IOException {
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+		try (ServerSocket server = new ServerSocket(0, nWorkers, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(60000);
+
+			for (int i = 0; i < nWorkers; ++i) {
+				List<String> command = new ArrayList<String>();
+				command.add(java);
+				command.addAll(Arrays.asList(jvmOptions));
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(FleetWorker.class.getName());
+				command.add(Integer.toString(server.getLocalPort()));
+
+				Worker worker = new Worker();
+				worker.process = new ProcessBuilder(command).inheritIO().start();
+				workers.add(worker);
+			}
+
+			// workers are matched to the connections in the order they arrive
+			for (Worker worker : workers) {
+				worker.socket = server.accept();
+				worker.in = new DataInputStream(new BufferedInputStream(worker.socket.getInputStream()));
+				worker.out = new DataOutputStream(new BufferedOutputStream(worker.socket.getOutputStream()));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void setTimeLimit(long millis) {
+		this.timeLimit = millis;
+	}
+
+	/**
+	 * The jobs of a modulus, one for each length difference from 0 to
+	 * maxDiff. Length differences that do not fit in the bits of p and q are
+	 * refuted by the workers at once.
+	 */
+	public static List<Job> lengthDifferences(String path, int maxDiff) {
+		List<Job> ret = new ArrayList<Job>();
+		for (int diff = 0; diff <= maxDiff; ++diff)
+			ret.add(new Job(path, diff, 0, 0));
+		return ret;
+	}
+
+	/**
+	 * The 2^nBits cubes over bits 1..nBits of p of one length difference.
+	 */
+	public static List<Job> cubes(String path, int diff, int nBits) {
+		List<Job> ret = new ArrayList<Job>();
+		for (int cube = 0; cube < 1 << nBits; ++cube)
+			ret.add(new Job(path, diff, nBits, cube));
+		return ret;
+	}
+
+	/**
+	 * Solves the jobs on the workers, in order.
+	 *
+	 * @return The result of every job: CANCELLED for the jobs of a modulus
+	 *         solved by another job, refuted for the ones pruned by a refuted
+	 *         job, NOT_SOLVED for the ones lost with the last worker, null for
+	 *         the ones never sent because no worker was left.
+	 */
+	public SolveResult[] run(List<Job> jobs) {
+
+		synchronized (this) {
+			this.jobs = jobs;
+			results = new SolveResult[jobs.size()];
+			nextJob = 0;
+			requeued = new ArrayDeque<Integer>();
+			nRunning = 0;
+			nAlive = (int) workers.stream().filter(s -> !s.lost).count();
+			refuted = new ArrayList<Job>();
+			solved = new HashSet<String>();
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (Worker worker : workers) {
+			if (worker.lost)
+				continue;
+			Thread thread = new Thread(() -> serve(worker), "fleet-" + threads.size());
+			threads.add(thread);
+			thread.start();
+		}
+
+		try {
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Sends jobs to one worker until there are no more.
+	 */
+	private void serve(Worker worker) {
+
+		int index;
+		while ((index = takeJob()) != -1) {
+			try {
+				synchronized (worker.out) {
+					worker.out.writeInt(JOB);
+					worker.out.writeInt(index);
+					jobs.get(index).write(worker.out);
+					worker.out.writeLong(timeLimit);
+					worker.out.flush();
+					// after the job, so that a cancel never reaches the worker before it
+					worker.running = index;
+				}
+
+				int id = worker.in.readInt();
+				SolveResult result = readResult(worker.in);
+				worker.running = -1;
+				done(id, result);
+			} catch (IOException e) {
+				System.err.println("ERROR: worker lost on job " + jobs.get(index) + ": " + e.getMessage());
+				worker.running = -1;
+				lost(worker, index);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The next job to send, after the ones pruned or dropped. While there is
+	 * none but some are running, waits: a lost worker can give one back.
+	 *
+	 * @return Its index, -1 if there are no more jobs.
+	 */
+	private synchronized int takeJob() {
+		while (true) {
+			int index;
+			if (!requeued.isEmpty())
+				index = requeued.poll();
+			else if (nextJob < jobs.size())
+				index = nextJob++;
+			else if (nRunning == 0)
+				return -1;
+			else {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return -1;
+				}
+				continue;
+			}
+			Job job = jobs.get(index);
+
+			if (solved.contains(job.getPath())) {
+				results[index] = skipped(SolveResult.Status.CANCELLED, false);
+				continue;
+			}
+			if (refuted.stream().anyMatch(job::isCoveredBy)) {
+				results[index] = skipped(SolveResult.Status.NOT_SOLVED, true);
+				continue;
+			}
+			++nRunning;
+			return index;
+		}
+	}
+
+	// the job goes back to the queue, or is not solved if it was the last worker
+	private synchronized void lost(Worker worker, int index) {
+
+		worker.lost = true;
+		--nRunning;
+		--nAlive;
+		requeued.add(index);
+		if (nAlive == 0)
+			while (!requeued.isEmpty())
+				results[requeued.poll()] = skipped(SolveResult.Status.NOT_SOLVED, false);
+		notifyAll();
+	}
+
+	private synchronized void done(int index, SolveResult result) {
+
+		--nRunning;
+		notifyAll();
+		results[index] = result;
+		Job job = jobs.get(index);
+
+		if (result.isRefuted())
+			refuted.add(job);
+
+		if (result.isSolved() && solved.add(job.getPath()))
+			for (Worker worker : workers) {
+				int running = worker.running;
+				if (running != -1 && running != index && jobs.get(running).getPath().equals(job.getPath()))
+					cancel(worker, running);
+			}
+	}
+
+	private void cancel(Worker worker, int index) {
+		try {
+			synchronized (worker.out) {
+				worker.out.writeInt(CANCEL);
+				worker.out.writeInt(index);
+				worker.out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: cancel of job " + jobs.get(index) + " not sent: " + e.getMessage());
+		}
+	}
+
+	private static SolveResult skipped(SolveResult.Status status, boolean refuted) {
+		SolveResult ret = new SolveResult();
+		ret.setStatus(status);
+		ret.setRefuted(refuted);
+		return ret;
+	}
+
+	static void writeResult(DataOutputStream out, SolveResult result) throws IOException {
+		out.writeUTF(result.getStatus().name());
+		out.writeBoolean(result.isRefuted());
+		out.writeUTF(result.isSolved() ? result.getP().toString() : "");
+		out.writeUTF(result.isSolved() ? result.getQ().toString() : "");
+		out.writeUTF(result.getPBits() == null ? "" : result.getPBits());
+		out.writeUTF(result.getQBits() == null ? "" : result.getQBits());
+		out.writeInt(result.getRelations());
+		out.writeInt(result.getCycles());
+	}
+
+	static SolveResult readResult(DataInputStream in) throws IOException {
+		SolveResult ret = new SolveResult();
+		ret.setStatus(SolveResult.Status.valueOf(in.readUTF()));
+		ret.setRefuted(in.readBoolean());
+		String p = in.readUTF();
+		String q = in.readUTF();
+		if (!p.isEmpty())
+			ret.setFactors(new BigInteger(p), new BigInteger(q));
+		ret.setBits(in.readUTF(), in.readUTF());
+		ret.setRelations(in.readInt());
+		ret.setCycles(in.readInt());
+		return ret;
+	}
+
+	/**
+	 * Stops the workers and waits for them to exit.
+	 */
+	@Override
+	public void close() {
+		for (Worker worker : workers) {
+			try {
+				if (worker.out != null) {
+					synchronized (worker.out) {
+						worker.out.writeInt(QUIT);
+						worker.out.flush();
+					}
+					worker.socket.close();
+				}
+			} catch (IOException e) {
+				// the worker is already gone
+			}
+		}
+		for (Worker worker : workers) {
+			try {
+				worker.process.waitFor();
+			} catch (InterruptedException e) {
+				worker.process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
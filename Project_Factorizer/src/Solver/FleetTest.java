@@ -0,0 +1,55 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FleetTest {
+
+	// one worker, so that the jobs are done in order and a refuted one prunes the next ones
+	private static Fleet fleet;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		fleet = new Fleet(1);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		fleet.close();
+	}
+
+	@Test
+	public void testTrueSplitSolved() throws Exception {
+		// the true split of 155 = 31 * 5 and 1387 = 73 * 19 (difference 2) used to be refuted
+		for (int n : new int[] { 155, 1387 }) {
+			File cnf = File.createTempFile("fleet" + n, ".cnf");
+			cnf.deleteOnExit();
+			Benchmark.writeInstance(BigInteger.valueOf(n), cnf.getPath());
+
+			// the cubes come after the whole split, they are only sent if it is not refuted
+			List<Fleet.Job> jobs = new ArrayList<Fleet.Job>();
+			jobs.add(new Fleet.Job(cnf.getPath(), 2, 0, 0));
+			jobs.addAll(Fleet.cubes(cnf.getPath(), 2, 2));
+			SolveResult[] results = fleet.run(jobs);
+
+			boolean solved = false;
+			for (int i = 0; i < results.length; ++i) {
+				assertFalse(n + ": " + jobs.get(i) + " refutato", results[i].isRefuted());
+				if (results[i].isSolved()) {
+					assertEquals("Prodotto dei fattori di " + n, BigInteger.valueOf(n),
+							results[i].getP().multiply(results[i].getQ()));
+					solved = true;
+				}
+			}
+			assertTrue(n + " non risolto", solved);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package Solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Worker process of a {@link Fleet}: connects to the coordinator on the
+ * loopback port given as the only argument, then solves the jobs it receives
+ * one at a time and sends back their results.</br>
+ * The socket is read by the main thread, so a cancel is seen while a job is
+ * being solved on the other one.</br>
+ * The jobs are read through {@link ProblemTemplate}, so the jobs of one bit
+ * length after the first only read the header of their file.
+ */
+class FleetWorker {
+
+	// job being solved and its options, for the cancel messages
+	private static volatile int runningId = -1;
+	private static volatile SolveOptions running;
+
+	public static void main(String[] args) throws IOException {
+
+		int port = Integer.parseInt(args[0]);
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			// daemon, so that a job still running does not keep the process alive after QUIT
+			ExecutorService solver = Executors.newSingleThreadExecutor(r -> {
+				Thread ret = new Thread(r, "fleet-job");
+				ret.setDaemon(true);
+				return ret;
+			});
+
+			while (true) {
+				int message = in.readInt();
+
+				if (message == Fleet.QUIT)
+					break;
+
+				if (message == Fleet.CANCEL) {
+					int id = in.readInt();
+					SolveOptions options = running;
+					if (options != null && runningId == id)
+						options.cancel();
+					continue;
+				}
+
+				int id = in.readInt();
+				Fleet.Job job = Fleet.Job.read(in);
+				SolveOptions options = new SolveOptions().setVerbose(false).setTimeLimit(in.readLong())
+						.setLengthDifference(job.getDiff()).setCube(job.getCubeBits(), job.getCube());
+				// set before the job starts, so that an early cancel is not lost
+				running = options;
+				runningId = id;
+				solver.submit(() -> {
+					SolveResult result = solve(job, options);
+					try {
+						synchronized (out) {
+							out.writeInt(id);
+							Fleet.writeResult(out, result);
+							out.flush();
+						}
+					} catch (IOException e) {
+						System.err.println("ERROR: result of job " + id + " not sent: " + e.getMessage());
+					}
+				});
+			}
+
+			solver.shutdownNow();
+		}
+	}
+
+	private static SolveResult solve(Fleet.Job job, SolveOptions options) {
+		try {
+			Problem problem = ProblemTemplate.read(job.getPath());
+			if (problem == null)
+				throw new IllegalArgumentException("cannot read " + job.getPath());
+			return problem.solve(options);
+		} catch (RuntimeException e) {
+			System.err.println("ERROR: job " + job + " failed: " + e);
+			SolveResult ret = new SolveResult();
+			ret.setStatus(SolveResult.Status.NOT_SOLVED);
+			return ret;
+		} finally {
+			runningId = -1;
+			running = null;
+		}
+	}
+}
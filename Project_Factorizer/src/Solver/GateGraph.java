@@ -0,0 +1,158 @@
+package Solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * And-inverter graph with structural hashing.</br>
+ * A literal is 2*node + 1 if complemented; node 0 is the constant, so
+ * {@link #FALSE} is 0 and {@link #TRUE} is 1. The other nodes are inputs or
+ * ANDs of two literals. Every AND is simplified before it is made: constants,
+ * equal and opposite fanins, one level of rewriting through the fanins
+ * (a & (a & b) = a & b, a & (!a & b) = false), and then looked up in the hash
+ * table, so two literals are equal only if they are the same function of the
+ * inputs.
+ */
+class GateGraph {
+
+	static final int FALSE = 0;
+	static final int TRUE = 1;
+
+	// fanins of the AND nodes, -1 for the inputs and the constant
+	private int[] left = new int[1024];
+	private int[] right = new int[1024];
+	private int nNodes = 1;
+	// (left << 32 | right) -> node
+	private Map<Long, Integer> strash = new HashMap<Long, Integer>();
+
+	GateGraph() {
+		left[0] = right[0] = -1;
+	}
+
+	private int newNode(int a, int b) {
+		if (nNodes == left.length) {
+			left = Arrays.copyOf(left, nNodes * 2);
+			right = Arrays.copyOf(right, nNodes * 2);
+		}
+		left[nNodes] = a;
+		right[nNodes] = b;
+		return nNodes++;
+	}
+
+	/**
+	 *
+	 * @return The positive literal of a new input.
+	 */
+	int input() {
+		return 2 * newNode(-1, -1);
+	}
+
+	private boolean isAnd(int literal) {
+		return (literal & 1) == 0 && left[literal >> 1] != -1;
+	}
+
+	int and(int a, int b) {
+
+		if (a > b) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+		if (a == FALSE || a == (b ^ 1))
+			return FALSE;
+		if (a == TRUE || a == b)
+			return b;
+
+		// one level of rewriting through the fanins of a positive AND
+		if (isAnd(b)) {
+			int x = left[b >> 1], y = right[b >> 1];
+			if (x == a || y == a)
+				return b;
+			if (x == (a ^ 1) || y == (a ^ 1))
+				return FALSE;
+		}
+		if (isAnd(a)) {
+			int x = left[a >> 1], y = right[a >> 1];
+			if (x == b || y == b)
+				return a;
+			if (x == (b ^ 1) || y == (b ^ 1))
+				return FALSE;
+		}
+
+		long key = (long) a << 32 | b;
+		Integer node = strash.get(key);
+		if (node == null) {
+			node = newNode(a, b);
+			strash.put(key, node);
+		}
+		return 2 * node;
+	}
+
+	int or(int a, int b) {
+		return and(a ^ 1, b ^ 1) ^ 1;
+	}
+
+	/**
+	 * a ^ b as (a & !b) | (!a & b), with the fanins made positive first so
+	 * that a xor and its complement share the nodes.
+	 */
+	int xor(int a, int b) {
+		int polarity = (a ^ b) & 1;
+		a &= ~1;
+		b &= ~1;
+		if (a == b)
+			return polarity;
+		if (a == FALSE)
+			return b ^ polarity;
+		if (b == FALSE)
+			return a ^ polarity;
+		return or(and(a, b ^ 1), and(a ^ 1, b)) ^ polarity;
+	}
+
+	/**
+	 * The function of two literals with the given truth table.
+	 *
+	 * @param table
+	 *            bit (va + 2*vb) is the value for a = va and b = vb.
+	 */
+	int function(int table, int a, int b) {
+
+		switch (Integer.bitCount(table)) {
+		case 0:
+			return FALSE;
+		case 4:
+			return TRUE;
+		case 1:
+		case 3: {
+			// one minterm different from the others: an AND with polarities
+			int minterm = Integer.numberOfTrailingZeros(Integer.bitCount(table) == 1 ? table : ~table & 0xF);
+			int ret = and((minterm & 1) == 1 ? a : a ^ 1, (minterm & 2) == 2 ? b : b ^ 1);
+			return Integer.bitCount(table) == 1 ? ret : ret ^ 1;
+		}
+		default:
+			switch (table) {
+			case 0b0110:
+				return xor(a, b);
+			case 0b1001:
+				return xor(a, b) ^ 1;
+			case 0b1010:
+				return a;
+			case 0b0101:
+				return a ^ 1;
+			case 0b1100:
+				return b;
+			default:
+				return b ^ 1;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return Number of nodes, the constant included.
+	 */
+	int size() {
+		return nNodes;
+	}
+}
@@ -0,0 +1,141 @@
+package Solver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Truth tables of groups with up to {@link #MAX_COLUMNS} columns.</br>
+ * An assignment of k columns is an int from 0 to 2^k-1, bit j is the value of
+ * column j. A set of assignments (the models) is an int with bit a set if
+ * assignment a is in the set, so 8 bits are enough for the 3 columns a group
+ * can have (see {@link Clause#insertRow(int[], int, int)}).</br>
+ * Every row of a group is a clause, so it removes exactly one assignment from
+ * the models: the one that makes all its literals false. Equalities and
+ * inequalities already known between the columns remove the assignments that
+ * break them.</br>
+ * The facts implied by a set of models (units, equalities, inequalities) are
+ * computed once and cached by pattern.
+ */
+class GroupTable {
+
+	static final int MAX_COLUMNS = 3;
+
+	// COLUMN[j] = assignments where column j is true
+	private static final int[] COLUMN = new int[MAX_COLUMNS];
+
+	static {
+		for (int j = 0; j < MAX_COLUMNS; ++j)
+			for (int a = 0; a < 1 << MAX_COLUMNS; ++a)
+				if ((a >> j & 1) == 1)
+					COLUMN[j] |= 1 << a;
+	}
+
+	// facts of the sets of models already seen, the key is (k << 32) | models
+	private static final ConcurrentHashMap<Long, Facts> CACHE = new ConcurrentHashMap<Long, Facts>();
+
+	/**
+	 * What a set of models says about its columns. Pairs (i,j) with i < j are
+	 * bit i*MAX_COLUMNS+j of the pair masks; a pair is reported only if none
+	 * of its columns is a unit.
+	 */
+	static class Facts {
+		// columns true (false) in every model
+		int trueColumns;
+		int falseColumns;
+		// pairs equal (different) in every model
+		int equalPairs;
+		int differentPairs;
+		// assignments that respect every fact, a superset of the models
+		int implied;
+	}
+
+	/**
+	 *
+	 * @return Every assignment of k columns.
+	 */
+	static int all(int k) {
+		return (1 << (1 << k)) - 1;
+	}
+
+	/**
+	 *
+	 * @return The assignments of k columns where column j is true.
+	 */
+	static int column(int k, int j) {
+		return COLUMN[j] & all(k);
+	}
+
+	/**
+	 *
+	 * @return The assignments of k columns where columns i and j are equal.
+	 */
+	static int equal(int k, int i, int j) {
+		return ~(COLUMN[i] ^ COLUMN[j]) & all(k);
+	}
+
+	/**
+	 *
+	 * @param row
+	 *            the signs of a row, bit j is 1 if column j is positive.
+	 * @return The models of a single row over k columns.
+	 */
+	static int rowModels(int k, int row) {
+		int falsifying = ~row & ((1 << k) - 1);
+		return all(k) & ~(1 << falsifying);
+	}
+
+	static int pair(int i, int j) {
+		return 1 << (i * MAX_COLUMNS + j);
+	}
+
+	/**
+	 *
+	 * @param k
+	 *            number of columns, from 1 to {@link #MAX_COLUMNS}.
+	 * @param models
+	 *            not empty set of assignments of k columns.
+	 * @return The facts implied by the models, shared: must not be modified.
+	 */
+	static Facts facts(int k, int models) {
+		Long key = (long) k << 32 | (models & 0xffffffffL);
+		Facts ret = CACHE.get(key);
+		if (ret == null) {
+			ret = compute(k, models);
+			CACHE.putIfAbsent(key, ret);
+		}
+		return ret;
+	}
+
+	private static Facts compute(int k, int models) {
+
+		Facts ret = new Facts();
+		ret.implied = all(k);
+
+		for (int j = 0; j < k; ++j) {
+			int t = column(k, j);
+			if ((models & ~t) == 0) {
+				ret.trueColumns |= 1 << j;
+				ret.implied &= t;
+			} else if ((models & t) == 0) {
+				ret.falseColumns |= 1 << j;
+				ret.implied &= ~t;
+			}
+		}
+
+		int units = ret.trueColumns | ret.falseColumns;
+		for (int i = 0; i < k; ++i) {
+			for (int j = i + 1; j < k; ++j) {
+				if ((units >> i & 1) == 1 || (units >> j & 1) == 1)
+					continue;
+				int eq = equal(k, i, j);
+				if ((models & ~eq) == 0) {
+					ret.equalPairs |= pair(i, j);
+					ret.implied &= eq;
+				} else if ((models & eq) == 0) {
+					ret.differentPairs |= pair(i, j);
+					ret.implied &= ~eq;
+				}
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,324 @@
+package Solver;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * probSAT local search over the rows left when the cycles stop.</br>
+ * Every component of the QUForest is one variable of the search (the
+ * component and its enemy are the two values of the same variable), the
+ * known values are constants and the rows they satisfy are dropped. Each
+ * thread runs its own walk: from a random assignment, it flips a variable of a
+ * random unsatisfied row, chosen with probability (eps + break)^-cb, where
+ * break is the number of rows that the flip would make unsatisfied.</br>
+ * Rows, occurrence lists, true literals per row, break counts and the list
+ * of unsatisfied rows are int arrays; break counts are kept up to date with
+ * the critical variable of the rows with one true literal (the xor of the
+ * true variables of a row is the critical one when there is only one).</br>
+ * A walk stops when p * q = N for the bits of its assignment, checked when no
+ * row is unsatisfied and every {@link #CHECK_FLIPS} flips.
+ */
+class LocalSearch {
+
+	private static final double CB = 2.3;
+	private static final double EPS = 1.0;
+	// flips between two checks of p * q and of the limits
+	private static final int CHECK_FLIPS = 1024;
+
+	private Problem problem;
+	private int nThreads;
+	private Random random;
+
+	// search variable of every variable of the problem and its polarity, -1 if known
+	private int[] searchVar;
+	private boolean[] flipped;
+	// known values of the problem variables (1, -1, 0 if unknown), read by the walks
+	private int[] known;
+	private int nSearchVars;
+
+	// literals 2*var+positive of row c: lits[rowStart[c]..rowStart[c+1]-1]
+	private int[] rowStart;
+	private int[] lits;
+	private int nRows;
+	// rows of literal l: occurrences[occurrenceStart[l]..occurrenceStart[l+1]-1]
+	private int[] occurrenceStart;
+	private int[] occurrences;
+
+	// (eps + break)^-cb for the small break counts
+	private double[] probability = new double[64];
+
+	LocalSearch(Problem problem, int nThreads, Random random) {
+		this.problem = problem;
+		this.nThreads = nThreads;
+		this.random = random;
+		for (int b = 0; b < probability.length; ++b)
+			probability[b] = Math.pow(EPS + b, -CB);
+	}
+
+	/**
+	 * Runs one walk per thread until one finds the factors, the others are
+	 * stopped as soon as it returns.
+	 *
+	 * @param maxFlips
+	 *            flips of every walk.
+	 * @return The values of the problem variables of the solution (1 true, -1
+	 *         false), null if no walk has found it.
+	 */
+	int[] search(long maxFlips) {
+
+		build();
+		if (nRows == -1)
+			return null;
+
+		AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		CompletionService<boolean[]> walks = new ExecutorCompletionService<boolean[]>(pool);
+		try {
+			for (int t = 0; t < nThreads; ++t) {
+				// seeds drawn in order, so a seeded problem gives the same walks
+				long seed = random == null ? System.nanoTime() + t : random.nextLong();
+				walks.submit(() -> walk(new Random(seed), maxFlips, stop));
+			}
+			// the walks in the order they end
+			for (int t = 0; t < nThreads; ++t) {
+				boolean[] assignment = walks.take().get();
+				if (assignment != null)
+					return values(assignment);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			stop.set(true);
+			pool.shutdownNow();
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the variables to the search variables and builds the rows and the
+	 * occurrence lists. nRows is -1 if a row has no literal left.
+	 */
+	private void build() {
+
+		QUForest qu = problem.getQu();
+		int nVars = problem.getnTotVars();
+		searchVar = new int[nVars];
+		flipped = new boolean[nVars];
+		known = new int[nVars];
+		int[] ofRepresentative = new int[nVars];
+		Arrays.fill(ofRepresentative, -1);
+
+		for (int v = 0; v < nVars; ++v) {
+			known[v] = problem.fixedValue(v);
+			if (known[v] != 0) {
+				searchVar[v] = -1;
+				continue;
+			}
+			int root = qu.find(v);
+			int enemy = qu.enemyRoot(v);
+			int representative = enemy == -1 || root < enemy ? root : enemy;
+			if (ofRepresentative[representative] == -1)
+				ofRepresentative[representative] = nSearchVars++;
+			searchVar[v] = ofRepresentative[representative];
+			flipped[v] = !qu.connected(v, representative);
+		}
+
+		List<Clause> clauses = problem.getClauses();
+		int nLits = 0;
+		for (Clause s : clauses)
+			nLits += s.nRows() * s.nColumns();
+		rowStart = new int[clauses.stream().mapToInt(Clause::nRows).sum() + 1];
+		lits = new int[nLits];
+		nLits = 0;
+
+		for (Clause s : clauses)
+			rows: for (int i = 0; i < s.nRows(); ++i) {
+				int start = nLits;
+				for (int j = 0; j < s.nColumns(); ++j) {
+					int v = s.getVar(j);
+					boolean positive = s.getSign(i, j);
+					if (searchVar[v] == -1) {
+						// satisfied by a known value: the row is dropped
+						if (positive == (known[v] == 1)) {
+							nLits = start;
+							continue rows;
+						}
+						continue;
+					}
+					int literal = 2 * searchVar[v] + (positive != flipped[v] ? 1 : 0);
+					// tautologies are dropped, repeated literals kept once
+					for (int k = start; k < nLits; ++k) {
+						if (lits[k] == (literal ^ 1)) {
+							nLits = start;
+							continue rows;
+						}
+						if (lits[k] == literal) {
+							literal = -1;
+							break;
+						}
+					}
+					if (literal != -1)
+						lits[nLits++] = literal;
+				}
+				if (nLits == start) {
+					nRows = -1;
+					return;
+				}
+				rowStart[++nRows] = nLits;
+			}
+
+		occurrenceStart = new int[2 * nSearchVars + 1];
+		for (int k = 0; k < nLits; ++k)
+			++occurrenceStart[lits[k] + 1];
+		for (int l = 0; l < 2 * nSearchVars; ++l)
+			occurrenceStart[l + 1] += occurrenceStart[l];
+		occurrences = new int[nLits];
+		int[] fill = Arrays.copyOf(occurrenceStart, 2 * nSearchVars);
+		for (int c = 0; c < nRows; ++c)
+			for (int k = rowStart[c]; k < rowStart[c + 1]; ++k)
+				occurrences[fill[lits[k]]++] = c;
+	}
+
+	/**
+	 * One walk of probSAT.
+	 *
+	 * @return The assignment of the search variables that gives p * q = N,
+	 *         null if not found.
+	 */
+	private boolean[] walk(Random random, long maxFlips, AtomicBoolean stop) {
+
+		boolean[] value = new boolean[nSearchVars];
+		for (int x = 0; x < nSearchVars; ++x)
+			value[x] = random.nextBoolean();
+
+		int[] nTrue = new int[nRows];
+		// xor of the search variables with a true literal in the row
+		int[] trueXor = new int[nRows];
+		int[] breaks = new int[nSearchVars];
+		int[] unsat = new int[nRows];
+		int[] unsatPosition = new int[nRows];
+		int nUnsat = 0;
+
+		for (int c = 0; c < nRows; ++c) {
+			for (int k = rowStart[c]; k < rowStart[c + 1]; ++k)
+				if (isTrue(lits[k], value)) {
+					++nTrue[c];
+					trueXor[c] ^= lits[k] >> 1;
+				}
+			if (nTrue[c] == 0) {
+				unsatPosition[c] = nUnsat;
+				unsat[nUnsat++] = c;
+			} else if (nTrue[c] == 1)
+				++breaks[trueXor[c]];
+		}
+
+		double[] weight = new double[16];
+
+		for (long flip = 0; flip < maxFlips; ++flip) {
+
+			if ((nUnsat == 0 || flip % CHECK_FLIPS == 0) && isSolution(value))
+				return value;
+			if (flip % CHECK_FLIPS == 0 && (stop.get() || problem.limitReached()))
+				return null;
+			if (nUnsat == 0)
+				// every row is satisfied but p * q != N: rows are missing, stop
+				return null;
+
+			// variable of a random unsatisfied row, by break count
+			int c = unsat[random.nextInt(nUnsat)];
+			int length = rowStart[c + 1] - rowStart[c];
+			if (weight.length < length)
+				weight = new double[length];
+			double total = 0;
+			for (int k = 0; k < length; ++k) {
+				int b = breaks[lits[rowStart[c] + k] >> 1];
+				weight[k] = b < probability.length ? probability[b] : Math.pow(EPS + b, -CB);
+				total += weight[k];
+			}
+			double r = random.nextDouble() * total;
+			int chosen = length - 1;
+			for (int k = 0; k < length - 1; ++k) {
+				r -= weight[k];
+				if (r <= 0) {
+					chosen = k;
+					break;
+				}
+			}
+			int x = lits[rowStart[c] + chosen] >> 1;
+
+			// the literal of x that becomes true, then the one that becomes false
+			value[x] = !value[x];
+			int becomesTrue = 2 * x + (value[x] ? 1 : 0);
+			int becomesFalse = becomesTrue ^ 1;
+
+			for (int o = occurrenceStart[becomesTrue]; o < occurrenceStart[becomesTrue + 1]; ++o) {
+				int d = occurrences[o];
+				if (nTrue[d] == 0) {
+					// satisfied now, x is critical
+					int last = unsat[--nUnsat];
+					unsat[unsatPosition[d]] = last;
+					unsatPosition[last] = unsatPosition[d];
+					++breaks[x];
+				} else if (nTrue[d] == 1)
+					--breaks[trueXor[d]];
+				++nTrue[d];
+				trueXor[d] ^= x;
+			}
+			for (int o = occurrenceStart[becomesFalse]; o < occurrenceStart[becomesFalse + 1]; ++o) {
+				int d = occurrences[o];
+				--nTrue[d];
+				trueXor[d] ^= x;
+				if (nTrue[d] == 0) {
+					unsatPosition[d] = nUnsat;
+					unsat[nUnsat++] = d;
+					--breaks[x];
+				} else if (nTrue[d] == 1)
+					++breaks[trueXor[d]];
+			}
+		}
+		return isSolution(value) ? value : null;
+	}
+
+	private static boolean isTrue(int literal, boolean[] value) {
+		return value[literal >> 1] == ((literal & 1) == 1);
+	}
+
+	// p * q = N with the bits of the assignment
+	private boolean isSolution(boolean[] value) {
+		BigInteger p = factor(value, problem.getStartIndexP(), problem.getEndIndexP());
+		BigInteger q = factor(value, problem.getStartIndexQ(), problem.getEndIndexQ());
+		return p.multiply(q).equals(problem.getN());
+	}
+
+	private BigInteger factor(boolean[] value, int start, int end) {
+		BigInteger ret = BigInteger.ZERO;
+		for (int i = start; i <= end; ++i)
+			if (valueOf(i, value))
+				ret = ret.setBit(i - start);
+		return ret;
+	}
+
+	private boolean valueOf(int v, boolean[] value) {
+		if (searchVar[v] == -1)
+			return known[v] == 1;
+		return value[searchVar[v]] != flipped[v];
+	}
+
+	// values of the problem variables for an assignment of the search variables
+	private int[] values(boolean[] assignment) {
+		int[] ret = new int[searchVar.length];
+		for (int v = 0; v < ret.length; ++v)
+			ret[v] = valueOf(v, assignment) ? 1 : -1;
+		return ret;
+	}
+}
@@ -0,0 +1,322 @@
+package Solver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a plain {@code DIMACS} file on several threads.</br>
+ * The header (comments and problem line) is read as usual, then the rest of
+ * the file is split in byte ranges that start after a newline and each range
+ * is parsed on its own. A row belongs to the group opened by the previous rows
+ * if all its variables are in the first row of that group, so the groups
+ * computed inside a range can be wrong only at its beginning: they are fixed
+ * (stitched) walking the first rows of every range until the grouping agrees
+ * again with the one of the previous ranges. Finally the clauses are built on
+ * each range and added to the problem in order, together with the occurrence
+ * lists.
+ */
+class ParallelReader {
+
+	private Problem problem;
+	private int nThreads;
+
+	/**
+	 * Rows of one byte range. Row r has the literals
+	 * {@code literals[rowStart[r]..rowStart[r+1]-1]}.
+	 */
+	private static class Chunk {
+		int[] literals = new int[1024];
+		int nLiterals;
+		int[] rowStart = new int[256];
+		int nRows;
+		// groupStart[r] is true if row r opens a new group
+		boolean[] groupStart;
+
+		void addLiteral(int literal) {
+			if (nLiterals == literals.length)
+				literals = Arrays.copyOf(literals, nLiterals * 2);
+			literals[nLiterals++] = literal;
+		}
+
+		void endRow() {
+			if (nRows + 2 > rowStart.length)
+				rowStart = Arrays.copyOf(rowStart, rowStart.length * 2);
+			if (rowStart[nRows] == nLiterals)
+				return; // empty row
+			rowStart[++nRows] = nLiterals;
+		}
+	}
+
+	ParallelReader(Problem problem, int nThreads) {
+		this.problem = problem;
+		this.nThreads = nThreads;
+	}
+
+	void read(String path) throws IOException {
+
+		long bodyStart = readHeader(path);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+			long[] bounds = split(channel, bodyStart);
+			int nChunks = bounds.length - 1;
+			ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+			try {
+				List<Future<Chunk>> parsed = new ArrayList<Future<Chunk>>();
+				for (int k = 0; k < nChunks; ++k) {
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[k],
+							bounds[k + 1] - bounds[k]);
+					parsed.add(pool.submit(() -> parse(buffer)));
+				}
+
+				Chunk[] chunks = new Chunk[nChunks];
+				for (int k = 0; k < nChunks; ++k)
+					chunks[k] = parsed.get(k).get();
+
+				stitch(chunks);
+
+				List<Future<List<Clause>>> built = new ArrayList<Future<List<Clause>>>();
+				for (int k = 0; k < nChunks; ++k) {
+					int chunk = k;
+					built.add(pool.submit(() -> build(chunks, chunk)));
+				}
+
+				for (Future<List<Clause>> s : built)
+					for (Clause clause : s.get())
+						problem.addClause(clause);
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + path, e);
+			} catch (ExecutionException e) {
+				throw new IOException("Error while reading " + path, e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Reads the comments and the problem line.
+	 *
+	 * @return The position of the first byte after the problem line.
+	 */
+	private long readHeader(String path) throws IOException {
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long position = 0;
+			int numberLine = 0;
+			int c;
+
+			while ((c = in.read()) != -1) {
+				++position;
+				if (c != '\n') {
+					if (c != '\r')
+						line.write(c);
+					continue;
+				}
+
+				++numberLine;
+				String text = line.toString();
+				line.reset();
+
+				problem.readHeaderLine(text, numberLine);
+				if (text.startsWith("p"))
+					return position;
+			}
+			return position;
+		}
+	}
+
+	// bounds of the ranges, each one starting after a newline
+	private long[] split(FileChannel channel, long bodyStart) throws IOException {
+
+		long size = channel.size();
+		long length = size - bodyStart;
+		// a mapped range cannot be larger than 2GB
+		int nChunks = (int) Math.max(4L * nThreads, length / (1L << 30) + 1);
+
+		long[] bounds = new long[nChunks + 1];
+		bounds[0] = bodyStart;
+		for (int k = 1; k < nChunks; ++k)
+			bounds[k] = Math.max(bounds[k - 1], nextLine(channel, bodyStart + length * k / nChunks, size));
+		bounds[nChunks] = size;
+
+		return bounds;
+	}
+
+	// position after the first newline at or after position
+	private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; ++i)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	private static Chunk parse(ByteBuffer buffer) {
+
+		Chunk chunk = new Chunk();
+		int n = buffer.limit();
+		int i = 0;
+
+		while (i < n) {
+
+			byte c = buffer.get(i);
+
+			// comments and problem lines are skipped
+			if (c == 'c' || c == 'p' || c == '%') {
+				while (i < n && buffer.get(i) != '\n')
+					++i;
+				++i;
+				continue;
+			}
+
+			boolean negative = false;
+			boolean inNumber = false;
+			int value = 0;
+
+			while (i < n) {
+				c = buffer.get(i++);
+
+				if (c == '-') {
+					negative = true;
+				} else if (c >= '0' && c <= '9') {
+					value = value * 10 + (c - '0');
+					inNumber = true;
+				} else {
+					if (inNumber && value != 0)
+						chunk.addLiteral(negative ? -value : value);
+					negative = false;
+					inNumber = false;
+					value = 0;
+					if (c == '\n')
+						break;
+				}
+			}
+			if (inNumber && value != 0)
+				chunk.addLiteral(negative ? -value : value);
+
+			chunk.endRow();
+		}
+
+		chunk.groupStart = new boolean[chunk.nRows];
+		int first = 0;
+		for (int r = 0; r < chunk.nRows; ++r) {
+			if (r == 0 || !fits(chunk, r, chunk, first)) {
+				chunk.groupStart[r] = true;
+				first = r;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 *
+	 * @return True if every variable of row {@code r} of {@code a} is in row
+	 *         {@code first} of {@code b}.
+	 */
+	private static boolean fits(Chunk a, int r, Chunk b, int first) {
+
+		for (int i = a.rowStart[r]; i < a.rowStart[r + 1]; ++i) {
+			int var = Math.abs(a.literals[i]);
+			boolean found = false;
+			for (int j = b.rowStart[first]; j < b.rowStart[first + 1] && !found; ++j)
+				found = Math.abs(b.literals[j]) == var;
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	// fixes the groups at the beginning of every range
+	private static void stitch(Chunk[] chunks) {
+
+		// first row of the group still open at the end of the previous ranges
+		Chunk openChunk = null;
+		int openRow = -1;
+
+		for (Chunk chunk : chunks) {
+
+			for (int r = 0; r < chunk.nRows; ++r) {
+				boolean start = openChunk == null || !fits(chunk, r, openChunk, openRow);
+				boolean synced = start && chunk.groupStart[r];
+
+				chunk.groupStart[r] = start;
+				if (start) {
+					openChunk = chunk;
+					openRow = r;
+				}
+				// from here the grouping of the range is the same as the serial one
+				if (synced)
+					break;
+			}
+
+			for (int r = chunk.nRows - 1; r >= 0; --r) {
+				if (chunk.groupStart[r]) {
+					openChunk = chunk;
+					openRow = r;
+					break;
+				}
+			}
+		}
+	}
+
+	// the clauses of the groups opened in chunks[k], rows can continue in the next ranges
+	private List<Clause> build(Chunk[] chunks, int k) {
+
+		List<Clause> ret = new ArrayList<Clause>();
+		Chunk chunk = chunks[k];
+		Clause clause = null;
+
+		for (int r = 0; r < chunk.nRows; ++r) {
+			if (chunk.groupStart[r]) {
+				clause = new Clause(chunk.literals, chunk.rowStart[r], chunk.rowStart[r + 1], problem);
+				ret.add(clause);
+			}
+			if (clause != null)
+				clause.insertRow(chunk.literals, chunk.rowStart[r], chunk.rowStart[r + 1]);
+		}
+
+		if (clause == null)
+			return ret;
+
+		// rows of the last group in the next ranges
+		for (int next = k + 1; next < chunks.length; ++next) {
+			Chunk other = chunks[next];
+			for (int r = 0; r < other.nRows; ++r) {
+				if (other.groupStart[r])
+					return ret;
+				clause.insertRow(other.literals, other.rowStart[r], other.rowStart[r + 1]);
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,79 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelReaderTest {
+
+	private static File plain;
+	// same content, read line by line because it cannot be split
+	private static File compressed;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String text = cnf();
+		plain = File.createTempFile("parallel", ".cnf");
+		compressed = File.createTempFile("parallel", ".cnf.gz");
+		plain.deleteOnExit();
+		compressed.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(plain)) {
+			out.write(text.getBytes(StandardCharsets.US_ASCII));
+		}
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+			out.write(text.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void testSameAsSerial() {
+		Problem serial = read(compressed, 1);
+		String expected = serial.printClauses();
+
+		// 4 ranges per thread: the bounds fall at many places inside the groups and the comments
+		for (int nThreads = 1; nThreads <= 16; ++nThreads) {
+			Problem parallel = read(plain, nThreads);
+			assertEquals("Gruppi diversi con " + nThreads + " thread", expected, parallel.printClauses());
+			for (int v = 0; v < serial.getnTotVars(); ++v)
+				assertEquals("Occorrenze di " + v + " con " + nThreads + " thread",
+						serial.getVarsMap().get(v).presentInNClauses(),
+						parallel.getVarsMap().get(v).presentInNClauses());
+		}
+	}
+
+	private static Problem read(File file, int nThreads) {
+		Problem ret = new Problem();
+		ret.setThreads(nThreads);
+		ret.readFile(file.getPath());
+		return ret;
+	}
+
+	// groups of 1 to 3 columns with all their rows but one, a comment every 5 lines
+	private static String cnf() throws IOException {
+		int nVars = 40;
+		StringBuilder body = new StringBuilder();
+		int nLines = 0;
+		int nClauses = 0;
+		for (int g = 0; g + 3 <= nVars; ++g) {
+			int nColumns = g % 3 + 1;
+			for (int row = 1; row < 1 << nColumns; ++row) {
+				if (++nLines % 5 == 0)
+					body.append("c inside group ").append(g).append('\n');
+				for (int j = 0; j < nColumns; ++j)
+					body.append((row >> j & 1) == 1 ? "" : "-").append(g + j + 1).append(' ');
+				body.append("0\n");
+				++nClauses;
+			}
+		}
+		return "c generated\nc multiplier\nc\nc Product of two primes: 15\np cnf " + nVars + " " + nClauses + "\n"
+				+ body;
+	}
+}
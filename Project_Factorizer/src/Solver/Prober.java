@@ -0,0 +1,264 @@
+package Solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Failed-literal probing over the bits of p and q.</br>
+ * Every unknown bit x is tried both ways on a thread-local copy of the
+ * problem: the normal propagation is run inside a level of the trail and the
+ * values it fixes are recorded before the level is popped. Then, on the
+ * original problem:</br>
+ * x=v gives a contradiction -> x = !v</br>
+ * both x=true and x=false give y=v -> y = v</br>
+ * x=true gives y=v and x=false gives y=!v -> x = y (v true) or x != y (v
+ * false).</br>
+ * Candidates are applied in order of lookahead score, the product of the
+ * number of values fixed by the two branches.</br>
+ * With a proof, the lemmas of each branch are kept (see
+ * {@link ProofWriter#branch(int, boolean)}) and written before the facts
+ * that follow from them.
+ */
+class Prober {
+
+	private Problem problem;
+	private int nThreads;
+	// draws the split of the candidates among the threads, null for round-robin
+	private Random random;
+
+	/**
+	 * Result of the lookahead on one variable. The literals are the variables
+	 * fixed by each branch, sorted by id and encoded as 2*id+value.
+	 */
+	private static class Lookahead {
+		int var;
+		// number of variables already known before the lookahead
+		int nKnown;
+		boolean trueFails;
+		boolean falseFails;
+		int[] trueLiterals;
+		int[] falseLiterals;
+		// lemmas of each branch, null without a proof
+		byte[] trueProof;
+		byte[] falseProof;
+
+		// failed literals come first, they fix the variable for sure
+		long score() {
+			if (trueFails || falseFails)
+				return Long.MAX_VALUE;
+			return (long) (trueLiterals.length - nKnown + 1) * (falseLiterals.length - nKnown + 1);
+		}
+	}
+
+	Prober(Problem problem, int nThreads, Random random) {
+		this.problem = problem;
+		this.nThreads = nThreads;
+		this.random = random;
+	}
+
+	/**
+	 * Probes every unknown bit and applies the facts found to the problem.
+	 *
+	 * @return Number of new facts applied.
+	 */
+	int probe() {
+
+		int[] candidates = problem.probeCandidates();
+		if (candidates.length == 0)
+			return 0;
+
+		List<Lookahead> results = lookaheadAll(candidates);
+		if (results == null)
+			return 0;
+
+		// best candidates first, ties broken by id so that the order is stable
+		Collections.sort(results,
+				Comparator.comparingLong(Lookahead::score).reversed().thenComparingInt(s -> s.var));
+
+		int nFacts = 0;
+		for (Lookahead s : results) {
+			nFacts += apply(s);
+			if (problem.hasConflict())
+				break;
+		}
+		return nFacts;
+	}
+
+	// runs the lookahead of the candidates on nThreads copies of the problem
+	private List<Lookahead> lookaheadAll(int[] candidates) {
+
+		int nWorkers = Math.max(1, Math.min(nThreads, candidates.length));
+		int[] split = split(candidates);
+		ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+		List<Future<List<Lookahead>>> futures = new ArrayList<Future<List<Lookahead>>>();
+
+		for (int w = 0; w < nWorkers; ++w) {
+			Problem local = problem.copy();
+			int worker = w;
+
+			futures.add(pool.submit(() -> {
+				List<Lookahead> ret = new ArrayList<Lookahead>();
+				int nKnown = fixedLiterals(local).length;
+				for (int i = worker; i < split.length && !local.shouldStop(); i += nWorkers)
+					ret.add(lookahead(local, split[i], nKnown));
+				return ret;
+			}));
+		}
+
+		List<Lookahead> results = new ArrayList<Lookahead>();
+		try {
+			for (Future<List<Lookahead>> s : futures)
+				results.addAll(s.get());
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.println("Error during probing: " + e);
+			results = null;
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+
+	// the candidates in the order they are dealt to the threads
+	private int[] split(int[] candidates) {
+
+		int[] ret = candidates.clone();
+		if (random == null)
+			return ret;
+
+		for (int i = ret.length - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int tmp = ret[i];
+			ret[i] = ret[j];
+			ret[j] = tmp;
+		}
+		return ret;
+	}
+
+	private Lookahead lookahead(Problem local, int var, int nKnown) {
+
+		Lookahead ret = new Lookahead();
+		ret.var = var;
+		ret.nKnown = nKnown;
+
+		local.pushLevel();
+		local.assignVariable(var, true);
+		ProofWriter branch = problem.branchProof(var, true);
+		local.setBranchProof(branch);
+		ret.trueFails = !local.propagate();
+		ret.trueLiterals = ret.trueFails ? null : fixedLiterals(local);
+		ret.trueProof = branch == null ? null : branch.records();
+		local.setBranchProof(null);
+		local.popLevel();
+
+		local.pushLevel();
+		local.assignVariable(var, false);
+		branch = problem.branchProof(var, false);
+		local.setBranchProof(branch);
+		ret.falseFails = !local.propagate();
+		ret.falseLiterals = ret.falseFails ? null : fixedLiterals(local);
+		ret.falseProof = branch == null ? null : branch.records();
+		local.setBranchProof(null);
+		local.popLevel();
+
+		return ret;
+	}
+
+	// every variable known inside the level, as 2*id+value
+	private static int[] fixedLiterals(Problem local) {
+
+		int nVars = local.getVarsMap().size();
+		int[] ret = new int[16];
+		int nLiterals = 0;
+
+		for (int i = 0; i < nVars; ++i) {
+			int value = local.fixedValue(i);
+			if (value == 0)
+				continue;
+			if (nLiterals == ret.length)
+				ret = Arrays.copyOf(ret, nLiterals * 2);
+			ret[nLiterals++] = 2 * i + (value == 1 ? 1 : 0);
+		}
+		return Arrays.copyOf(ret, nLiterals);
+	}
+
+	// applies the facts of one lookahead, skipping what is already known
+	private int apply(Lookahead s) {
+
+		QUForest qu = problem.getQu();
+		int nFacts = 0;
+
+		if (problem.fixedValue(s.var) != 0)
+			return 0;
+
+		if (s.trueFails && s.falseFails) {
+			// both branches fail: no solution with this length difference
+			problem.addBranchProof(s.trueProof);
+			problem.addBranchProof(s.falseProof);
+			problem.raiseConflict();
+			return 1;
+		}
+		if (s.trueFails) {
+			problem.addBranchProof(s.trueProof);
+			problem.assignVariable(s.var, false);
+			return 1;
+		}
+		if (s.falseFails) {
+			problem.addBranchProof(s.falseProof);
+			problem.assignVariable(s.var, true);
+			return 1;
+		}
+
+		int[] t = s.trueLiterals;
+		int[] f = s.falseLiterals;
+		int i = 0, j = 0;
+
+		while (i < t.length && j < f.length) {
+			int idT = t[i] >> 1;
+			int idF = f[j] >> 1;
+
+			if (idT < idF) {
+				++i;
+				continue;
+			}
+			if (idF < idT) {
+				++j;
+				continue;
+			}
+
+			boolean valueT = (t[i] & 1) == 1;
+			boolean valueF = (f[j] & 1) == 1;
+			++i;
+			++j;
+
+			if (idT == s.var || problem.fixedValue(idT) != 0)
+				continue;
+
+			// the lemmas of both branches, before the first fact that follows from them
+			boolean fact = valueT == valueF || !qu.connected(s.var, idT) && !qu.areEnemy(s.var, idT);
+			if (fact && nFacts == 0) {
+				problem.addBranchProof(s.trueProof);
+				problem.addBranchProof(s.falseProof);
+			}
+
+			if (valueT == valueF) {
+				problem.assignVariable(idT, valueT, s.var);
+				++nFacts;
+			} else if (fact) {
+				if (valueT)
+					problem.union(s.var, idT);
+				else
+					problem.disj(s.var, idT);
+				++nFacts;
+			}
+		}
+		return nFacts;
+	}
+}
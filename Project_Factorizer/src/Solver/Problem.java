@@ -1,21 +1,24 @@
 package Solver;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.InputStreamReader;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
-import com.sun.javafx.binding.SelectBinding.AsString;
-
 import Solver.Clause.GroupType;
 
 public class Problem {
@@ -26,6 +29,8 @@ public class Problem {
 	private List<Clause> clauses = new ArrayList<Clause>();
 	// structure for quickUnion and Disjunction management
 	private QUForest qu;
+	// undo log for speculative reasoning (see pushLevel() and popLevel())
+	private Trail trail = new Trail();
 	// initial number of variables
 	private int nTotVars;
 	// initial number of clauses
@@ -42,72 +47,188 @@ public class Problem {
 	private BigInteger q;
 	// position of p and q in variables
 	private int startIndexP, endIndexP, startIndexQ, endIndexQ;
+	// level of the trail where a contradiction has been found, -1 if none
+	private int conflictLevel = -1;
+	// where the proof is written, null if it is not needed
+	private String proofPath;
+	// proof of the current phase, null if it is not needed
+	private ProofWriter proof;
+	// true while the facts are supposed, they go to the assumptions of the proof
+	private boolean assuming;
+	// columns of the group the facts of the current rule are read from, the
+	// proof splits on them (see ProofWriter), null if they follow by unit propagation
+	private int[] proofSplit;
+	// originalId[i] = id in the file of variable i, null if not renumbered (see reorder())
+	private int[] originalId;
+	// renamedId[i] = current id of variable i of the file, null if not renumbered
+	private int[] renamedId;
+	// variables of the components joined to the true or false root since the last assignKnownVars()
+	private int[] joinedKnown = new int[64];
+	private int nJoinedKnown;
+	// true if assignKnownVars() has to look at every variable (first call, after popLevel())
+	private boolean scanAllKnown = true;
+	// roots of the variables for the 4x3 rule, created on first use
+	private RelationCache relations;
+	// true if the clauses are kept off-heap after reading (see setOffHeap())
+	private boolean offHeap;
+	// counters of the rules, null if they are not needed
+	private RuleProfiler profiler;
+	// threads used by the parallel phases (reading and probing)
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	// splits the probing candidates among the threads, null to split them round-robin
+	private Random random;
+	// limits of the current solve(), shared with the copies
+	private SolveOptions options = new SolveOptions();
+	// System.nanoTime() when the time limit is over
+	private long deadline = Long.MAX_VALUE;
+	// cycles of the second phase done by the current solve()
+	private int nCycles;
+	// why the current solve() has been stopped, null if it has not
+	private SolveResult.Status stopStatus;
+	// writer of the checkpoints of the current solve(), null if they are not needed
+	private CheckpointFile checkpoints;
+	// System.nanoTime() of the next checkpoint
+	private long nextCheckpoint;
+	// length difference tried by the second phase
+	private int currentDiff;
+	// bits of p and q compared by the symmetry breaking, 0 if it is off
+	private int symmetryBits;
+	
+	public Problem() {
+	}
+	
+	/**
+	 * Deep copy of another problem, used for speculative work on other threads.
+	 * The copy has its own trail and shares nothing mutable with the original.
+	 */
+	private Problem(Problem other) {
+		qu = new QUForest(other.qu);
+		qu.setTrail(trail);
+		qu.setConflictListener((s, t, union) -> raiseConflict());
+		qu.setMergeListener(this::collectKnown);
+		nTotVars = other.nTotVars;
+		nTotClauses = other.nTotClauses;
+		posVarId = other.posVarId;
+		negVarId = other.negVarId;
+		n = other.n;
+		startIndexP = other.startIndexP;
+		endIndexP = other.endIndexP;
+		startIndexQ = other.startIndexQ;
+		endIndexQ = other.endIndexQ;
+		conflictLevel = other.conflictLevel;
+		options = other.options;
+		deadline = other.deadline;
+		symmetryBits = other.symmetryBits;
+		originalId = other.originalId;
+		renamedId = other.renamedId;
+		
+		for (Variable s : other.variables.values())
+			variables.put(s.getId(), new Variable(s, trail));
+		
+		for (Clause s : other.clauses) {
+			Clause copy = new Clause(s, this);
+			clauses.add(copy);
+			for (int j = 0; j < copy.nColumns(); ++j)
+				variables.get(copy.getVar(j)).addClause(copy);
+		}
+	}
 	
+	Problem copy() {
+		return new Problem(this);
+	}
 	
 	public void solve() {
+		solve(new SolveOptions());
+	}
+	
+	/**
+	 * Same as solve(), within the limits of the options: the time and cycle
+	 * budgets and the cancellation are checked between the steps of every
+	 * cycle and between the probing candidates.
+	 * 
+	 * @return The factors, or the bits known when the solver stopped, with
+	 *         the number of relations and the time of every phase.
+	 */
+	public SolveResult solve(SolveOptions options) {
 		
+		this.options = options;
+		long solveStart = System.nanoTime();
+		deadline = options.getTimeLimit() > 0 ? solveStart + options.getTimeLimit() * 1000000 : Long.MAX_VALUE;
+		nCycles = 0;
+		stopStatus = null;
+		SolveResult result = new SolveResult();
+		CheckpointFile.State resumed = openCheckpoints();
+		
+		if(proofPath != null)
+			for(Clause s : clauses)
+				s.keepOriginal();
+		openProof(proofPath, null);
 		sortClauses();
 		
 		// first phase
-		System.out.println("STEP 1: MONOCLAUSE");
+		long phaseStart = System.nanoTime();
+		log("STEP 1: MONOCLAUSE");
 		solveMonoClause();
 		cleanEmptyClause();
 		sortClauses();
-		System.out.println(this.getInfo());
+		log(this.getInfo());
 		
-		System.out.println("STEP 2: LSB ASSIGNMENT");
+		log("STEP 2: LSB ASSIGNMENT");
 		// assigning 2 values
 		firstBitIsOne();		
 		cleanEmptyClause();
 		sortClauses();
-		System.out.println(this.getInfo());
-		
-		System.out.println("STEP 3: LENGTH DIFFERENCE");
-		supposeDiffLength(0);
-		System.out.println(this.getInfo());
-		// second phase
+		log(this.getInfo());
+		sweepCircuit();
+		result.addPhase("first phase", System.nanoTime() - phaseStart);
 		
-		int currentProgress;
-		int previousProgress= numberRelations();;
-		
-		for(int i=0; i < 1000000; ++i) {
+		// every length difference is tried inside a level, so that it can be
+		// undone as soon as it leads to a contradiction
+		int firstDiff = options.getLengthDifference() >= 0 ? options.getLengthDifference()
+				: resumed == null ? 0 : resumed.diff;
+		int lastDiff = options.getLengthDifference() >= 0 ? options.getLengthDifference() : Integer.MAX_VALUE;
+		// true while every length difference tried is contradictory
+		boolean refuted = true;
+		for(int diff = firstDiff; diff <= lastDiff && !shouldStop() && canSupposeDiffLength(diff); ++diff) {
 			
+			phaseStart = System.nanoTime();
+			closeProof();
+			openProof(proofPath == null ? null : proofPath + ".diff" + diff,
+					proofPath == null ? null : proofPath + ".diff" + diff + ".assumptions");
+			trail.pushLevel();
+			currentDiff = diff;
 			
+			log("STEP 3: LENGTH DIFFERENCE");
+			assuming = true;
+			supposeDiffLength(diff);
+			supposeCube(options.getCubeBits(), options.getCube());
+			if(resumed != null && resumed.diff == diff)
+				restoreCheckpoint(resumed);
+			assuming = false;
+			log(this.getInfo());
+			sweepCircuit();
+			// second phase
+			solveCycles();
+			result.addPhase("length difference " + diff, System.nanoTime() - phaseStart);
 			
+			if(!hasConflict()) {
+				refuted = false;
+				break;
+			}
 			
-			//System.out.println("STEP 4: TWO BY TWO");
-			solveClausesTwoByTwo();
-			cleanEmptyClause();
-			sortClauses();
-			//System.out.println(this.getInfo());
-			
-			//System.out.println("STEP 5: FOUR BY THREE");
-			solveClausesFourByThree();
-			cleanEmptyClause();
-			sortClauses();
-			//System.out.println(this.getInfo());
-			
-			//System.out.println("STEP 6: MONOCLAUSE");
-			solveMonoClause();
-			cleanEmptyClause();
-			sortClauses();
-			//System.out.println(this.getInfo());
-			
-			//System.out.println("STEP 7: KNOWN VARIABLES");
-			assignKnownVars();
-			cleanEmptyClause();
-			sortClauses();
-			System.out.println("\nCYCLE #"+i+"\n"+this.getInfo());
-			
-			currentProgress = numberRelations();
-			
-			//no progress
-			if(currentProgress == previousProgress) break;
-			//else
-			previousProgress=currentProgress;
-			
-			
+			log("CONFLICT: no solution with length difference "+diff);
+			popLevel();
+			// a checkpoint from now on resumes from the next difference
+			currentDiff = diff + 1;
 		}
+		if(!hasConflict() && !refuted && stopStatus == null)
+			searchLocally();
+		closeProof();
+		
+		// the last checkpoint, to continue from where a limit stopped the solver
+		if(stopStatus != null && !hasConflict())
+			checkpoint(true);
+		closeCheckpoints();
 
 		
 
@@ -125,19 +246,726 @@ public class Problem {
 		//System.out.println(this.relationsInfo());
 
 
-		System.out.println("posVar: "+posVarId);
-		System.out.println("negVar: "+negVarId);
+		log("posVar: "+posVarId);
+		log("negVar: "+negVarId);
 		
+		phaseStart = System.nanoTime();
 		decodeResult();
 		
 		
 		
-		if(resultIsValid())
-			System.out.println("Problem Solved!!!");
+		boolean solved = resultIsValid();
+		if(solved)
+			log("Problem Solved!!!");
 		else
-			System.out.println("Problem Not Solved :(");
+			log("Problem Not Solved :(");
+		
+		if(profiler != null)
+			log(profiler.report());
+		
+		result.setStatus(solved ? SolveResult.Status.SOLVED
+				: stopStatus != null ? stopStatus : SolveResult.Status.NOT_SOLVED);
+		if(solved)
+			result.setFactors(p, q);
+		result.setBits(knownBits(startIndexP, endIndexP), knownBits(startIndexQ, endIndexQ));
+		result.setRelations(numberRelations());
+		result.setCycles(nCycles);
+		result.setRefuted(refuted && stopStatus == null);
+		result.addPhase("decode", System.nanoTime() - phaseStart);
+		
+		return result;
+	}
+	
+	private void log(String text) {
+		if(options.isVerbose())
+			System.out.println(text);
+	}
+	
+	/**
+	 * Opens the checkpoint file of the options, if any.
+	 * 
+	 * @return The checkpoint to continue from, null to start from the
+	 *         beginning.
+	 */
+	private CheckpointFile.State openCheckpoints() {
+		
+		String path = options.getCheckpointPath();
+		if(path == null)
+			return null;
 		
-		return;
+		CheckpointFile.State ret = null;
+		try {
+			if(options.isResume()) {
+				ret = CheckpointFile.read(path, nTotVars, n);
+				if(ret == null)
+					System.err.println("WARNING: no checkpoint of this problem in " + path);
+			}
+			checkpoints = new CheckpointFile(path, nTotVars, n);
+			nextCheckpoint = System.nanoTime() + options.getCheckpointInterval() * 1000000;
+		} catch (IOException e) {
+			System.err.println("ERROR: checkpoints disabled: " + e.getMessage());
+			checkpoints = null;
+		}
+		return ret;
+	}
+	
+	private void closeCheckpoints() {
+		if(checkpoints == null)
+			return;
+		try {
+			checkpoints.close();
+		} catch (IOException e) {
+			System.err.println("ERROR: checkpoint file not closed: " + e.getMessage());
+		}
+		checkpoints = null;
+	}
+	
+	/**
+	 * Copies the relations for the checkpoint writer, if the interval is over
+	 * or {@code now} is true. Only the copy is done by the solver thread.
+	 */
+	private void checkpoint(boolean now) {
+		if(checkpoints == null || (!now && System.nanoTime() < nextCheckpoint))
+			return;
+		
+		int[] root = new int[nTotVars];
+		int[] enemy = new int[nTotVars];
+		for(int i = 0; i < nTotVars; ++i) {
+			root[i] = qu.find(i);
+			enemy[i] = root[i] == i ? qu.enemyRoot(i) : -1;
+		}
+		checkpoints.offer(new CheckpointFile.State(currentDiff, nCycles, root, enemy));
+		nextCheckpoint = System.nanoTime() + options.getCheckpointInterval() * 1000000;
+	}
+	
+	/**
+	 * Adds again the relations of a checkpoint, inside the level of its
+	 * length difference; the next cycles reduce the clauses with them.
+	 */
+	private void restoreCheckpoint(CheckpointFile.State state) {
+		for(int i = 0; i < nTotVars; ++i)
+			if(state.root[i] != i)
+				union(i, state.root[i]);
+		for(int i = 0; i < nTotVars; ++i)
+			if(state.enemy[i] > i)
+				disj(i, state.enemy[i]);
+		nCycles = state.nCycles;
+		log("Resumed from the checkpoint of cycle " + state.nCycles);
+	}
+	
+	/**
+	 * Same as shouldStop() for the cancellation and the time, without
+	 * changing the state: it can be called from other threads.
+	 */
+	boolean limitReached() {
+		return options.isCancelled() || (deadline != Long.MAX_VALUE && System.nanoTime() > deadline);
+	}
+	
+	/**
+	 * Checks the limits of the current solve(): cancellation, cycles and time.
+	 * 
+	 * @return True if the solver must stop, the reason is kept for the result.
+	 */
+	boolean shouldStop() {
+		if(stopStatus != null)
+			return true;
+		
+		if(options.isCancelled())
+			stopStatus = SolveResult.Status.CANCELLED;
+		else if(nCycles >= options.getMaxCycles())
+			stopStatus = SolveResult.Status.CYCLE_LIMIT;
+		else if(deadline != Long.MAX_VALUE && System.nanoTime() > deadline)
+			stopStatus = SolveResult.Status.TIMEOUT;
+		
+		return stopStatus != null;
+	}
+	
+	/**
+	 * 
+	 * @return The bits from id start to id end, the most significant first:
+	 *         '1', '0' or '?' if unknown.
+	 */
+	private String knownBits(int start, int end) {
+		StringBuilder ret = new StringBuilder();
+		for(int i = end; i >= start; --i) {
+			int value = fixedValue(i);
+			ret.append(value == 1 ? '1' : value == -1 ? '0' : '?');
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Second phase: cycles until no progress is made or a contradiction is
+	 * found.
+	 */
+	private void solveCycles() {
+		
+		int currentProgress;
+		int previousProgress= numberRelations();;
+		
+		for(int i=0; !hasConflict() && !shouldStop(); ++i) {
+			
+			runCycle();
+			++nCycles;
+			log("\nCYCLE #"+i+"\n"+this.getInfo());
+			if(hasConflict()) break;
+			
+			currentProgress = numberRelations();
+			
+			//no progress
+			if(currentProgress == previousProgress && sweepCircuit() > 0)
+				currentProgress = numberRelations();
+			if(currentProgress == previousProgress) {
+				log("STEP 8: PROBING");
+				long start = profileStart();
+				int nFacts = probe();
+				profilePass(RuleProfiler.PROBING, currentProgress, start);
+				if(nFacts == 0) break;
+				currentProgress = numberRelations();
+			}
+			if(profiler != null)
+				profiler.endCycle();
+			checkpoint(false);
+			//else
+			previousProgress=currentProgress;
+		}
+	}
+	
+	/**
+	 * One cycle of the second phase: every rule is applied once. Stops as soon
+	 * as a contradiction is found.
+	 */
+	private void runCycle() {
+		long start;
+		int before;
+		
+		if(options.isSubstitution()) {
+			log("STEP 4A: SUBSTITUTION");
+			start = profileStart();
+			before = numberRelations();
+			substituteEquivalences();
+			cleanEmptyClause();
+			sortClauses();
+			profilePass(RuleProfiler.SUBSTITUTION, before, start);
+			if(hasConflict() || shouldStop()) return;
+		}
+		
+		//System.out.println("STEP 4: TWO BY TWO");
+		start = profileStart();
+		before = numberRelations();
+		solveClausesTwoByTwo();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.TWO_BY_TWO, before, start);
+		//System.out.println(this.getInfo());
+		if(hasConflict() || shouldStop()) return;
+		
+		//System.out.println("STEP 5: FOUR BY THREE");
+		start = profileStart();
+		before = numberRelations();
+		solveClausesFourByThree();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.FOUR_BY_THREE, before, start);
+		//System.out.println(this.getInfo());
+		if(hasConflict() || shouldStop()) return;
+		
+		//System.out.println("STEP 5B: SMALL GROUPS");
+		start = profileStart();
+		before = numberRelations();
+		solveSmallGroups();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.SMALL_GROUPS, before, start);
+		//System.out.println(this.getInfo());
+		if(hasConflict() || shouldStop()) return;
+		
+		//System.out.println("STEP 6: MONOCLAUSE");
+		start = profileStart();
+		before = numberRelations();
+		solveMonoClause();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.MONO_CLAUSE, before, start);
+		//System.out.println(this.getInfo());
+		if(hasConflict() || shouldStop()) return;
+		
+		//System.out.println("STEP 7: KNOWN VARIABLES");
+		start = profileStart();
+		before = numberRelations();
+		assignKnownVars();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.KNOWN_VARS, before, start);
+		if(hasConflict() || shouldStop() || symmetryBits == 0) return;
+		
+		log("STEP 7B: SYMMETRY");
+		start = profileStart();
+		before = numberRelations();
+		propagateSymmetry();
+		profilePass(RuleProfiler.SYMMETRY, before, start);
+	}
+	
+	/**
+	 * Completes the bits of p and q with a local search, if enabled by the
+	 * options and some of them are unknown (see {@link LocalSearch}).
+	 */
+	private void searchLocally() {
+		
+		if(options.getLocalSearchFlips() <= 0
+				|| (knownBits(startIndexP, endIndexP) + knownBits(startIndexQ, endIndexQ)).indexOf('?') == -1)
+			return;
+		
+		log("STEP 9: LOCAL SEARCH");
+		long start = profileStart();
+		int before = numberRelations();
+		int[] values = new LocalSearch(this, nThreads, random).search(options.getLocalSearchFlips());
+		
+		if(values == null)
+			log("No solution from the local search");
+		else {
+			// a model, not a consequence of the rows
+			assuming = true;
+			for(int i = startIndexP; i <= endIndexQ; ++i)
+				if(fixedValue(i) == 0)
+					assignVariable(i, values[i] == 1);
+			assuming = false;
+			// the bits equal to the ones assigned
+			assignKnownVars();
+		}
+		profilePass(RuleProfiler.LOCAL_SEARCH, before, start);
+	}
+	
+	/**
+	 * Adds the equalities between the gates computing the same function, if
+	 * enabled by the options (see {@link CircuitSweep}).
+	 * 
+	 * @return Number of new facts.
+	 */
+	private int sweepCircuit() {
+		if(!options.isCircuitSweep() || hasConflict())
+			return 0;
+		
+		log("STEP 2B: CIRCUIT SWEEP");
+		long start = profileStart();
+		int before = numberRelations();
+		int ret = new CircuitSweep(this).sweep();
+		cleanEmptyClause();
+		sortClauses();
+		profilePass(RuleProfiler.CIRCUIT, before, start);
+		log(ret + " facts from the circuit");
+		return ret;
+	}
+	
+	/**
+	 * Rewrites the groups with two columns of the same class to the
+	 * representatives of the classes (the smaller root of the class and of its
+	 * enemy, negated for the enemy class), see
+	 * {@link Clause#substitute(int[], boolean[])}. Then, among the groups with
+	 * the same set of columns, found through a hash index, the ones whose rows
+	 * are all rows of another are removed: the other implies them. The columns
+	 * of known value are left to assignKnownVars().
+	 * 
+	 * @return Number of groups rewritten or removed.
+	 */
+	int substituteEquivalences() {
+		
+		int[] representative = new int[nTotVars];
+		boolean[] flipped = new boolean[nTotVars];
+		for(int v = 0; v < nTotVars; ++v) {
+			if(fixedValue(v) != 0) {
+				representative[v] = v;
+				continue;
+			}
+			int root = qu.find(v);
+			int enemy = qu.enemyRoot(v);
+			representative[v] = enemy == -1 || root < enemy ? root : enemy;
+			flipped[v] = !qu.connected(v, representative[v]);
+		}
+		
+		int ret = 0;
+		int[] before = new int[8];
+		for(Clause s : clauses) {
+			if(s.nColumns() > before.length)
+				before = new int[s.nColumns()];
+			int nBefore = s.nColumns();
+			for(int j = 0; j < nBefore; ++j)
+				before[j] = s.getVar(j);
+			
+			if(!s.substitute(representative, flipped))
+				continue;
+			++ret;
+			
+			// occurrence lists: the replaced variables lose the group, the representatives get it
+			for(int j = 0; j < nBefore; ++j)
+				if(!hasColumn(s, before[j]))
+					variables.get(before[j]).removeClause(s);
+			for(int j = 0; j < s.nColumns(); ++j) {
+				int v = s.getVar(j);
+				boolean had = false;
+				for(int h = 0; h < nBefore && !had; ++h)
+					had = before[h] == v;
+				if(!had)
+					variables.get(v).addClause(s);
+			}
+		}
+		
+		// groups by sorted columns, with their rows in the order of the sorted columns
+		Map<List<Integer>, List<Clause>> byColumns = new HashMap<List<Integer>, List<Clause>>();
+		Map<Clause, int[]> sortedRows = new IdentityHashMap<Clause, int[]>();
+		Set<Clause> implied = Collections.newSetFromMap(new IdentityHashMap<Clause, Boolean>());
+		for(Clause s : clauses) {
+			if(s.isSolved())
+				continue;
+			List<Integer> key = new ArrayList<Integer>(s.nColumns());
+			for(int j = 0; j < s.nColumns(); ++j)
+				key.add(s.getVar(j));
+			Collections.sort(key);
+			int[] rows = new int[s.nRows()];
+			for(int i = 0; i < rows.length; ++i)
+				for(int j = 0; j < s.nColumns(); ++j)
+					if(s.getSign(i, j))
+						rows[i] |= 1 << key.indexOf(s.getVar(j));
+			sortedRows.put(s, rows);
+			List<Clause> same = byColumns.computeIfAbsent(key, k -> new ArrayList<Clause>());
+			
+			boolean isImplied = false;
+			for(int h = 0; h < same.size() && !isImplied; ++h) {
+				int[] other = sortedRows.get(same.get(h));
+				if(containsRows(other, rows)) {
+					isImplied = true;
+				}
+				else if(containsRows(rows, other)) {
+					implied.add(same.get(h));
+					same.remove(h--);
+				}
+			}
+			if(isImplied)
+				implied.add(s);
+			else
+				same.add(s);
+		}
+		
+		for(Clause s : implied) {
+			clauses.remove(s);
+			trail.recordClauseRemoved(clauses, s);
+			for(int j = 0; j < s.nColumns(); ++j)
+				variables.get(s.getVar(j)).removeClause(s);
+		}
+		return ret + implied.size();
+	}
+	
+	private static boolean hasColumn(Clause s, int v) {
+		for(int j = 0; j < s.nColumns(); ++j)
+			if(s.getVar(j) == v)
+				return true;
+		return false;
+	}
+	
+	// true if every row of b is a row of a
+	private static boolean containsRows(int[] a, int[] b) {
+		rows: for(int row : b) {
+			for(int other : a)
+				if(other == row)
+					continue rows;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Propagates p <= q over the symmetryBits bits of p and q, from the most
+	 * significant: the pairs already equal are skipped, the first pair that is
+	 * not must have p_i <= q_i, and if the two bits are known to differ p_i is
+	 * 0. A pair that becomes equal lets the next one be checked.
+	 */
+	private void propagateSymmetry() {
+		
+		// the values that break the symmetry are supposed, not derived
+		assuming = true;
+		for(int i = symmetryBits - 1; i >= 0 && !hasConflict(); --i) {
+			int bitP = startIndexP + i;
+			int bitQ = startIndexQ + i;
+			
+			if(qu.connected(bitP, bitQ))
+				continue;
+			
+			int valueP = fixedValue(bitP);
+			int valueQ = fixedValue(bitQ);
+			
+			// p > q
+			if(valueP == 1 && valueQ == -1) {
+				// p_i <= q_i is what contradicts the bits
+				if(proving())
+					proof.assumeClause(bitP, false, bitQ, true);
+				raiseConflict();
+				break;
+			}
+			// p < q whatever the lower bits are
+			if(valueP == -1 && valueQ == 1)
+				break;
+			
+			if(qu.areEnemy(bitP, bitQ)) {
+				assignVariable(bitP, false);
+				break;
+			}
+			if(valueP == 1)
+				assignVariable(bitQ, true);
+			else if(valueQ == -1)
+				assignVariable(bitP, false);
+			else
+				break;
+		}
+		assuming = false;
+	}
+	
+	/**
+	 * Runs the cycles of the second phase until no new relation is found or a
+	 * contradiction is reached.
+	 * 
+	 * @return False if a contradiction has been found, true otherwise.
+	 */
+	boolean propagate() {
+		
+		int previousProgress = numberRelations();
+		
+		while (!hasConflict()) {
+			runCycle();
+			
+			int currentProgress = numberRelations();
+			if (currentProgress == previousProgress)
+				break;
+			previousProgress = currentProgress;
+		}
+		
+		return !hasConflict();
+	}
+	
+	/**
+	 * Looks ahead on the bits of p and q when the rules do not make progress.
+	 * 
+	 * @return Number of new facts (values, equalities, inequalities) found.
+	 */
+	private int probe() {
+		return new Prober(this, nThreads, random).probe();
+	}
+	
+	/**
+	 * 
+	 * @return Where the lemmas of the branch idVar = value of a lookahead on
+	 *         a copy are kept, null if there is no proof.
+	 */
+	ProofWriter branchProof(int idVar, boolean value) {
+		return proof == null ? null : proof.branch(idVar, value);
+	}
+	
+	/**
+	 * The lemmas of this copy go to the proof of a branch, or nowhere if it is
+	 * null.
+	 */
+	void setBranchProof(ProofWriter branch) {
+		proof = branch;
+	}
+	
+	/**
+	 * Writes the lemmas of a branch, before the facts that follow from it.
+	 */
+	void addBranchProof(byte[] records) {
+		if(proving() && records != null)
+			proof.addRecords(records);
+	}
+	
+	/**
+	 * 
+	 * @return The ids of the bits of p and q whose value is still unknown.
+	 */
+	int[] probeCandidates() {
+		int[] candidates = new int[(endIndexP - startIndexP + 1) + (endIndexQ - startIndexQ + 1)];
+		int nCandidates = 0;
+		
+		for (int i = startIndexP; i <= endIndexP; ++i)
+			if (fixedValue(i) == 0)
+				candidates[nCandidates++] = i;
+		for (int i = startIndexQ; i <= endIndexQ; ++i)
+			if (fixedValue(i) == 0)
+				candidates[nCandidates++] = i;
+		
+		return Arrays.copyOf(candidates, nCandidates);
+	}
+	
+	/**
+	 * 
+	 * @return 1 if the variable is known to be true, -1 if it is known to be
+	 *         false, 0 otherwise.
+	 */
+	int fixedValue(int idVar) {
+		// nothing is known before solveMonoClause() finds the constants
+		if (posVarId == -1 || negVarId == -1)
+			return 0;
+		int root = qu.find(idVar);
+		
+		if (root == qu.find(posVarId))
+			return 1;
+		if (root == qu.find(negVarId))
+			return -1;
+		return 0;
+	}
+	
+	/**
+	 * 
+	 * @return True if a contradiction has been found (at the current level or
+	 *         below).
+	 */
+	boolean hasConflict() {
+		return conflictLevel != -1;
+	}
+	
+	void raiseConflict() {
+		if (conflictLevel != -1)
+			return;
+		conflictLevel = trail.level();
+		if (proof != null)
+			proof.addEmpty(proofSplit);
+	}
+	
+	// true if the facts must be written in the proof: nothing follows the empty clause
+	private boolean proving() {
+		return proof != null && !hasConflict();
+	}
+	
+	/**
+	 * Equality between two variables, written in the proof if needed.
+	 */
+	void union(int p, int q) {
+		// written before the union, that raises the conflict if they are enemies
+		if (proving() && !qu.connected(p, q)) {
+			if (assuming)
+				proof.assumeEquivalence(p, q);
+			else
+				proof.addEquivalence(p, q, proofSplit);
+			// p = q against p != q: the empty clause needs a unit before it
+			if (qu.areEnemy(p, q))
+				proof.addUnit(p, false, proofSplit);
+		}
+		qu.union(p, q);
+	}
+	
+	/**
+	 * Inequality between two variables, written in the proof if needed.
+	 */
+	void disj(int p, int q) {
+		if (proving() && !qu.areEnemy(p, q)) {
+			if (assuming)
+				proof.assumeAntiEquivalence(p, q);
+			else
+				proof.addAntiEquivalence(p, q, proofSplit);
+			if (qu.connected(p, q))
+				proof.addUnit(p, false, proofSplit);
+		}
+		qu.disj(p, q);
+	}
+	
+	/**
+	 * Enables the proof: the facts derived before the length difference are
+	 * written in {@code path}, the ones of each length difference d in
+	 * {@code path.diffd}. The binary {@code DRAT} files can be concatenated to
+	 * check one length difference, against the CNF with the clauses of
+	 * {@code path.diffd.assumptions} (the supposed facts) added. Must be
+	 * called before solve().
+	 * 
+	 * @param path
+	 *            The location of the proof, null to disable it.
+	 */
+	public void setProofPath(String path) {
+		this.proofPath = path;
+	}
+	
+	/**
+	 * Memory-bounded mode for huge instances: once read, the columns and rows
+	 * of every clause are moved to a {@code ClauseArena} in direct memory and
+	 * only the clause objects stay on the heap. Must be called before
+	 * readFile(). Copies made for probing stay on the heap.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+	
+	/**
+	 * Counts the applications, the relations and the time of every rule in
+	 * every cycle of the second phase; the report is printed at the end of
+	 * solve().
+	 * 
+	 * @param profiler
+	 *            The counters to fill, null to disable the profiling.
+	 */
+	public void setProfiler(RuleProfiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	/**
+	 * Number of threads of the parallel phases, the number of processors by
+	 * default. The result does not depend on it: the file is parsed in ranges
+	 * merged in order, and every probing candidate is looked ahead from the
+	 * same state (levels are popped back to it exactly, and the clauses are
+	 * always sorted in the same total order).
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+	
+	/**
+	 * Deterministic mode for benchmarks and bisection: the probing candidates
+	 * are split among the threads by a permutation drawn from this seed, and
+	 * the results are merged in order. Two runs with the same seed and number
+	 * of threads do the same work on the same threads and print the same
+	 * trace.
+	 */
+	public void setSeed(long seed) {
+		this.random = new Random(seed);
+	}
+	
+	// start of a profiled pass or rule application, 0 if there is no profiler
+	private long profileStart() {
+		return profiler == null ? 0 : System.nanoTime();
+	}
+	
+	private void profilePass(int rule, int relationsBefore, long start) {
+		if(profiler != null)
+			profiler.pass(rule, numberRelations() - relationsBefore, System.nanoTime() - start);
+	}
+	
+	private void profileRule(int rule, int ruleCase, int relationsBefore, long start) {
+		if(profiler != null)
+			profiler.rule(rule, ruleCase, numberRelations() - relationsBefore, System.nanoTime() - start);
+	}
+	
+	// moves the clauses to a new arena, in the order of the list
+	private void packClauses() {
+		ClauseArena arena = new ClauseArena();
+		for (Clause s : clauses)
+			s.pack(arena);
+		log(String.format("Clauses packed off-heap: %d MB.", arena.reservedBytes() >> 20));
+	}
+	
+	private void openProof(String path, String assumptionsPath) {
+		if (path == null)
+			return;
+		try {
+			proof = new ProofWriter(path, originalId, assumptionsPath);
+		} catch (IOException e) {
+			System.err.println("Error during proof opening: " + path);
+		}
+	}
+	
+	private void closeProof() {
+		if (proof == null)
+			return;
+		try {
+			proof.close();
+		} catch (IOException e) {
+			System.err.println("Error during proof writing: " + e.getMessage());
+		}
+		proof = null;
 	}
 	
 	/**
@@ -149,43 +977,92 @@ public class Problem {
 	 * Then (4 = true) => assign(4, true).
 	 */
 	private void assignKnownVars() {
-		// TODO Auto-generated method stub
+		
 		int rootTrue = qu.find(posVarId);
 		int rootFalse = qu.find(negVarId);
 		
-		variables.values().stream().filter(s-> !s.isAssigned()).forEach(s->{
-			
-			int id = s.getId();
-			int root = qu.find(id);
-			
-			if(root == rootTrue) {
-				assignVariable(id, true);
-				//System.out.println("Variable with ID="+id+" assigned to true.");
-			}
-				
-			
-			if(root == rootFalse) {
-				assignVariable(id, false);
-				//System.out.println("Variable with ID="+id+" assigned to false.");
-			}
-				
-		});
+		if(scanAllKnown) {
+			scanAllKnown = false;
+			nJoinedKnown = 0;
+			variables.values().stream().filter(s-> !s.isAssigned()).forEach(s->assignKnownVar(s.getId(), rootTrue, rootFalse));
+			return;
+		}
 		
+		//only the members of the components joined to rootTrue or rootFalse since the last call
+		int nJoined = nJoinedKnown;
+		nJoinedKnown = 0;
+		for(int i = 0; i < nJoined; ++i) {
+			int id = joinedKnown[i];
+			if(!variables.get(id).isAssigned())
+				assignKnownVar(id, rootTrue, rootFalse);
+		}
+		
+	}
+	
+	private void assignKnownVar(int id, int rootTrue, int rootFalse) {
+		
+		int root = qu.find(id);
+		
+		if(root == rootTrue)
+			assignVariable(id, true);
+		else if(root == rootFalse)
+			assignVariable(id, false);
+	}
+	
+	/**
+	 * Called by the forest before two components are merged: if one of them
+	 * is the true or the false component, the members of the other one become
+	 * known and are queued for assignKnownVars().
+	 */
+	private void collectKnown(int rootP, int rootQ) {
+		
+		if(scanAllKnown || posVarId == -1 || negVarId == -1)
+			return;
+		
+		int rootTrue = qu.find(posVarId);
+		int rootFalse = qu.find(negVarId);
+		int joined;
+		
+		if(rootP == rootTrue || rootP == rootFalse)
+			joined = rootQ;
+		else if(rootQ == rootTrue || rootQ == rootFalse)
+			joined = rootP;
+		else
+			return;
+		
+		int member = joined;
+		do {
+			if(nJoinedKnown == joinedKnown.length)
+				joinedKnown = Arrays.copyOf(joinedKnown, nJoinedKnown * 2);
+			joinedKnown[nJoinedKnown++] = member;
+			member = qu.nextMember(member);
+		} while(member != joined);
 	}
 
 	private void solveClausesFourByThree() {
 
-		clauses.stream().filter(s->s.nColumns()==3).filter(s->s.nRows()==4).filter(Clause::hasRelation).forEach(s->{
+		if(relations == null)
+			relations = new RelationCache(nTotVars);
+		relations.refresh(qu);
+		
+		clauses.stream().filter(s->s.nColumns()==3).filter(s->s.nRows()==4).filter(relations::hasRelation).forEach(s->{
 			
 			//System.out.println("Prima:\n"+s.print());
 			
+			long start = profileStart();
+			int before = numberRelations();
+			proofSplit = proof == null ? null : new int[] { s.getVar(0), s.getVar(1), s.getVar(2) };
 			int whatToDo = s.solveClauseFourByThree();
 			
 			//System.out.println("Eseguo op "+whatToDo+" per "+s.getGroupType());
-			if(s.getGroupType() == GroupType.MostFalse)
+			if(s.getGroupType() == GroupType.MostFalse) {
 				solveMostFalseClause(whatToDo, s);
-			else
+				profileRule(RuleProfiler.MOST_FALSE, whatToDo, before, start);
+			} else {
 				solveMostTrueClause(whatToDo, s);
+				profileRule(RuleProfiler.MOST_TRUE, whatToDo, before, start);
+			}
+			proofSplit = null;
 			//System.out.println("Dopo:\n"+s.print());
 		});
 		
@@ -193,11 +1070,9 @@ public class Problem {
 
 	private void solveMostTrueClause(int whatToDo, Clause clause) {
 		// TODO Auto-generated method stub
-		List<Integer> vars = clause.getVars();
-		
-		int v1=vars.get(0);
-		int v2=vars.get(1);
-		int v3=vars.get(2);
+		int v1=clause.getVar(0);
+		int v2=clause.getVar(1);
+		int v3=clause.getVar(2);
 		
 		switch (whatToDo) {
 		case 0:
@@ -226,16 +1101,16 @@ public class Problem {
 
 	private void solveMostFalseClause(int whatToDo, Clause clause) {
 		
-		List<Integer> vars = clause.getVars();
-		
-		int v1=vars.get(0);
-		int v2=vars.get(1);
-		int v3=vars.get(2);
+		int v1=clause.getVar(0);
+		int v2=clause.getVar(1);
+		int v3=clause.getVar(2);
 		
 		switch (whatToDo) {
 		case 0:
-			qu.union(v2, v3);
+			union(v2, v3);
 			//TODO check if it is right to eliminate the clause
+			if(proof != null)
+				proof.deleteClause(clause);
 			clause.emptyVarOfClause();
 			//clauses.remove(clause);
 			break;
@@ -256,7 +1131,7 @@ public class Problem {
 		case 5:
 			assignVariable(v1, true);
 			assignVariable(v2, false);
-			assignVariable(v3, true);
+			assignVariable(v3, false);
 			break;
 		default:
 			System.err.println("Error in Problem.solveMostFalseClause()");
@@ -270,29 +1145,133 @@ public class Problem {
 		
 		List<Clause> toRemove = new ArrayList<Clause>();
 		clauses.stream().filter(s->s.nColumns()==2).filter(s->s.nRows()==2).forEach(s->{
+			long start = profileStart();
+			int before = numberRelations();
 			int whatToDo = s.solveClauseTwoByTwo();
 			doWhatMustbeDone(whatToDo, s);
+			profileRule(RuleProfiler.TWO_BY_TWO, whatToDo, before, start);
 			toRemove.add(s);
 		});
 		
 		toRemove.stream().forEach(s->{
+			if(proof != null)
+				proof.deleteClause(s);
+			s.emptyVarOfClause();
+			clauses.remove(s);
+			trail.recordClauseRemoved(clauses, s);
+		});
+	}
+
+	/**
+	 * Groups of up to GroupTable.MAX_COLUMNS columns that are not 2x2 or 4x3
+	 * (e.g. 3x3, 2x3, 3x2 left by partial assignments): every unit, equality
+	 * and inequality implied by the rows and by the relations already known
+	 * between the columns is applied. A group whose rows say nothing more
+	 * than these facts is removed.
+	 */
+	private void solveSmallGroups() {
+		
+		List<Clause> toRemove = new ArrayList<Clause>();
+		
+		clauses.stream().filter(s->s.nColumns()>=2 && s.nColumns()<=GroupTable.MAX_COLUMNS)
+				.filter(s->!(s.nColumns()==2 && s.nRows()==2)).filter(s->!(s.nColumns()==3 && s.nRows()==4))
+				.collect(Collectors.toList()).forEach(s->{
+			
+			if(hasConflict() || s.isSolved())
+				return;
+			
+			long start = profileStart();
+			int before = numberRelations();
+			int k = s.nColumns();
+			int[] vars = new int[k];
+			for(int j = 0; j < k; ++j)
+				vars[j] = s.getVar(j);
+			
+			int models = s.models();
+			int known = knownModels(vars);
+			proofSplit = proof == null ? null : vars;
+			if((models & known) == 0) {
+				raiseConflict();
+				proofSplit = null;
+				return;
+			}
+			
+			GroupTable.Facts facts = GroupTable.facts(k, models & known);
+			
+			for(int j = 0; j < k; ++j) {
+				if((facts.trueColumns >> j & 1) == 1 && fixedValue(vars[j]) == 0)
+					assignVariable(vars[j], true);
+				else if((facts.falseColumns >> j & 1) == 1 && fixedValue(vars[j]) == 0)
+					assignVariable(vars[j], false);
+			}
+			
+			for(int i = 0; i < k; ++i) {
+				for(int j = i + 1; j < k; ++j) {
+					int pair = GroupTable.pair(i, j);
+					if((facts.equalPairs & pair) != 0 && !qu.connected(vars[i], vars[j]))
+						union(vars[i], vars[j]);
+					else if((facts.differentPairs & pair) != 0 && !qu.areEnemy(vars[i], vars[j]))
+						disj(vars[i], vars[j]);
+				}
+			}
+			
+			proofSplit = null;
+			
+			//the facts (and the relations known before) already say everything the rows say
+			if(!s.isSolved() && (facts.implied & known & ~models) == 0)
+				toRemove.add(s);
+			profileRule(RuleProfiler.SMALL_GROUPS, -1, before, start);
+		});
+		
+		toRemove.stream().forEach(s->{
+			if(proof != null)
+				proof.deleteClause(s);
 			s.emptyVarOfClause();
 			clauses.remove(s);
+			trail.recordClauseRemoved(clauses, s);
 		});
 	}
+	
+	/**
+	 * 
+	 * @return The assignments of the variables (as columns of GroupTable)
+	 *         allowed by the values, equalities and inequalities already known.
+	 */
+	private int knownModels(int[] vars) {
+		
+		int k = vars.length;
+		int ret = GroupTable.all(k);
+		
+		for(int j = 0; j < k; ++j) {
+			int value = fixedValue(vars[j]);
+			if(value == 1)
+				ret &= GroupTable.column(k, j);
+			else if(value == -1)
+				ret &= ~GroupTable.column(k, j);
+		}
+		
+		for(int i = 0; i < k; ++i) {
+			for(int j = i + 1; j < k; ++j) {
+				if(qu.connected(vars[i], vars[j]))
+					ret &= GroupTable.equal(k, i, j);
+				else if(qu.areEnemy(vars[i], vars[j]))
+					ret &= ~GroupTable.equal(k, i, j);
+			}
+		}
+		return ret;
+	}
 
 	private void doWhatMustbeDone(int whatToDo, Clause clause) {
 		
-		List<Integer> vars = clause.getVars();
-		int v1=vars.get(0);
-		int v2=vars.get(1);
+		int v1=clause.getVar(0);
+		int v2=clause.getVar(1);
 		
 		switch (whatToDo) {
 		case 0:
-			qu.union(v1, v2);
+			union(v1, v2);
 			break;
 		case 1:
-			qu.disj(v1, v2);
+			disj(v1, v2);
 			break;
 		case 2:
 			assignVariable(v1, false);
@@ -315,31 +1294,37 @@ public class Problem {
 	private void firstBitIsOne() {
 		assignVariable(startIndexP, true);
 		assignVariable(startIndexQ, true);
-		qu.union(startIndexP, posVarId);
-		qu.union(startIndexQ, posVarId);
+		union(startIndexP, posVarId);
+		union(startIndexQ, posVarId);
 	}
 
 
 
 	private void sortClauses() {
-		Collections.sort(clauses, Comparator.comparing(Clause::totSize).thenComparing(Clause::getVarOfMonoClause));		
+		//the order in the file breaks the ties, so the result does not depend on the order before sorting
+		Collections.sort(clauses, Comparator.comparing(Clause::totSize).thenComparing(Clause::getVarOfMonoClause)
+				.thenComparingInt(Clause::getOrder));
 	}
 
 	private void cleanEmptyClause() {
 		
 		List<Clause> toRemove = new LinkedList<Clause>();
 		clauses.stream().filter(Clause::isSolved).forEach(s->{
+			if(s.isFalsified())
+				raiseConflict();
 			toRemove.add(s);
 		});
 		
 		toRemove.stream().forEach(s->{
 			clauses.remove(s);
+			trail.recordClauseRemoved(clauses, s);
 		});
 		
 	}
 
 	/**
-	 * Initialize the problem with a file in {@code DIMACS} format.
+	 * Initialize the problem with a file in {@code DIMACS} format, possibly
+	 * compressed (.gz, .xz, .zst).
 	 * 
 	 * @param path
 	 *            The location of the file.
@@ -348,7 +1333,38 @@ public class Problem {
 
 		long t1 = System.nanoTime();
 
-		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+		try {
+			if (CompressedInput.isCompressed(path))
+				readSerial(path);
+			else
+				new ParallelReader(this, nThreads).read(path);
+		} catch (IOException e) {
+			System.err.println("Error during file reading: " + path);
+		}
+		
+		//TODO can be parallelized
+		clauses.stream().forEach(s->{
+			s.evaluateGroupType();
+		});
+		
+		if(offHeap)
+			packClauses();
+		
+		long t2 = System.nanoTime();
+		
+		initializeIndexResult();
+		
+		System.out.println(String.format("File read in: %.3f ms.", (double) (t2 - t1) / Math.pow(10, 6)));
+
+	}
+	
+	/**
+	 * Reads the file line by line, used for the compressed inputs that cannot
+	 * be split.
+	 */
+	private void readSerial(String path) throws IOException {
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(CompressedInput.open(path)))) {
 
 			String line;
 			Clause clause = null;
@@ -358,30 +1374,10 @@ public class Problem {
 				
 				++numberLine;
 				
-				String[] fields = line.split(" ");
-				
-				if (line.startsWith("c")) {
-					// is a comment
-					System.out.println(line);
-					
-					if(numberLine == 4) {
-						this.n = new BigInteger(fields[5]);
-					}
-					
+				if (readHeaderLine(line, numberLine))
 					continue;
-				}
-
 				
-				if (line.startsWith("p")) {
-					this.nTotVars = Integer.decode(fields[2]);
-					this.nTotClauses = Integer.decode(fields[3]);
-					this.qu = new QUForest(nTotVars);
-
-					for (int i = 0; i < nTotVars; ++i)
-						variables.put(i, new Variable(i));
-
-					continue;
-				}
+				String[] fields = line.split(" ");
 
 				List<Integer> vars = Arrays.asList(fields).stream().map(s -> Integer.decode(s))
 						.collect(Collectors.toList());
@@ -398,14 +1394,10 @@ public class Problem {
 				if (clause.hasTheseVars(vars)) {
 					clause.insertRow(vars);
 				} else {
-					clauses.add(clause);
+					addClause(clause);
 					// System.out.println("adding:\n" + clause.print());
 					// System.out.println("compare:\n"+clauses.get(clauses.size()-1).print());
 
-					clause.getVars().stream().forEach(s -> {
-						// System.out.println("Incremento:\n" + (s + 1));
-						variables.get(s).addClause(clauses.get(clauses.size() - 1));
-					});
 					clause = new Clause(vars,this);
 					clause.insertRow(vars);
 				}
@@ -413,29 +1405,126 @@ public class Problem {
 			}
 
 			// this is for the last row
-			clauses.add(clause);
-			clause.getVars().stream().forEach(s -> {
-				// System.out.println("Incremento:\n"+(s+1));
-				variables.get(s).addClause(clauses.get(clauses.size() - 1));
-			});
-
-		} catch (IOException e) {
-			System.err.println("Error during file reading: " + path);
+			addClause(clause);
 		}
+	}
+	
+	/**
+	 * Handles the comments and the problem line of the {@code DIMACS} file.
+	 * The number to factorize is in the comment at line 4.
+	 * 
+	 * @return True if the line is a comment or the problem line, false if it
+	 *         is a clause.
+	 */
+	boolean readHeaderLine(String line, int numberLine) {
 		
-		//TODO can be parallelized
-		clauses.stream().forEach(s->{
-			s.evaluateGroupType();
-		});
-		
-		long t2 = System.nanoTime();
+		String[] fields = line.split(" ");
 		
-		initializeIndexResult();
+		if (line.startsWith("c")) {
+			// is a comment
+			System.out.println(line);
+			
+			if(numberLine == 4) {
+				this.n = new BigInteger(fields[5]);
+			}
+			
+			return true;
+		}
+
 		
-		System.out.println(String.format("File read in: %.3f ms.", (double) (t2 - t1) / Math.pow(10, 6)));
+		if (line.startsWith("p")) {
+			this.nTotVars = Integer.decode(fields[2]);
+			this.nTotClauses = Integer.decode(fields[3]);
+			this.qu = new QUForest(nTotVars);
+			qu.setTrail(trail);
+			qu.setConflictListener((s, t, union) -> raiseConflict());
+			qu.setMergeListener(this::collectKnown);
+
+			for (int i = 0; i < nTotVars; ++i)
+				variables.put(i, new Variable(i, trail));
 
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Appends a group read from the file and adds it to the occurrence lists
+	 * of its variables.
+	 */
+	void addClause(Clause clause) {
+		clause.setOrder(clauses.size());
+		clauses.add(clause);
+		for (int j = 0; j < clause.nColumns(); ++j)
+			variables.get(clause.getVar(j)).addClause(clause);
 	}
 
+	/**
+	 * Removes the groups made of one unit clause, the output bits of the
+	 * multiplier, used to make a template of the problem.
+	 * 
+	 * @return The literals of the unit clauses in file order, as 2*id+value.
+	 */
+	int[] removeUnitClauses() {
+		
+		List<Clause> units = clauses.stream().filter(Clause::isMonoClause)
+				.sorted(Comparator.comparingInt(Clause::getOrder)).collect(Collectors.toList());
+		
+		int[] ret = new int[units.size()];
+		for(int k = 0; k < ret.length; ++k) {
+			Clause s = units.get(k);
+			ret[k] = 2 * s.getVarOfMonoClause() + (s.isPositiveMonoClause() ? 1 : 0);
+			variables.get(s.getVarOfMonoClause()).removeClause(s);
+		}
+		
+		Set<Clause> removed = Collections.newSetFromMap(new IdentityHashMap<Clause, Boolean>());
+		removed.addAll(units);
+		clauses.removeIf(removed::contains);
+		return ret;
+	}
+	
+	BigInteger getN() {
+		return n;
+	}
+	
+	/**
+	 * Sets the number to factorize of a problem made from a template, before
+	 * its unit clauses are added.
+	 */
+	void setModulus(BigInteger n) {
+		this.n = n;
+		initializeIndexResult();
+	}
+	
+	/**
+	 * Adds the unit clause idVar = value as if it had been read from the file.
+	 */
+	void addUnitClause(int idVar, boolean value) {
+		List<Integer> literal = Collections.singletonList(value ? idVar + 1 : -(idVar + 1));
+		Clause clause = new Clause(literal, this);
+		clause.insertRow(literal);
+		clause.evaluateGroupType();
+		addClause(clause);
+	}
+	
+	/**
+	 * Copy of a template made by {@link ProblemTemplate}, with its threads and
+	 * off-heap mode; the clauses are packed by {@link #packIfOffHeap()} once
+	 * the unit clauses are added.
+	 */
+	Problem copyTemplate() {
+		Problem ret = new Problem(this);
+		ret.nThreads = nThreads;
+		ret.offHeap = offHeap;
+		return ret;
+	}
+	
+	void packIfOffHeap() {
+		if(offHeap)
+			packClauses();
+	}
+	
 	private void initializeIndexResult() {
 		int nBitProduct = n.bitLength();
 		startIndexP = 0;
@@ -452,20 +1541,128 @@ public class Problem {
 	}
 
 	public String printPresentsOfVariables() {
-		return variables.values().stream()
-				.map(s -> "Variable " + (s.getId() + 1) + " appears in " + s.presentInNClauses() + " clauses.")
+		return variablesInFileOrder().stream()
+				.map(s -> "Variable " + (originalId(s.getId()) + 1) + " appears in " + s.presentInNClauses() + " clauses.")
 				.collect(Collectors.joining("\n"));
 	}
 
 	public String result() {
-		return variables.values().stream().filter(s-> s.isAssigned()).map(s-> (s.getValue() ? "":"-")+(s.getId()+1) ).collect(Collectors.joining(" "));
+		return variablesInFileOrder().stream().filter(s-> s.isAssigned()).map(s-> (s.getValue() ? "":"-")+(originalId(s.getId())+1) ).collect(Collectors.joining(" "));
+	}
+	
+	/**
+	 * 
+	 * @return The id that the variable has in the file.
+	 */
+	int originalId(int idVar) {
+		return originalId == null ? idVar : originalId[idVar];
+	}
+	
+	/**
+	 * 
+	 * @return The current id of the variable with the given id in the file.
+	 */
+	int renamedId(int fileId) {
+		return renamedId == null ? fileId : renamedId[fileId];
+	}
+	
+	private List<Variable> variablesInFileOrder() {
+		if (renamedId == null)
+			return new ArrayList<Variable>(variables.values());
+		
+		List<Variable> ret = new ArrayList<Variable>(nTotVars);
+		for (int i = 0; i < nTotVars; ++i)
+			ret.add(variables.get(renamedId[i]));
+		return ret;
+	}
+	
+	/**
+	 * Renumbers the variables following the circuit, so that the variables of
+	 * the same adder cell are close in the arrays of QUForest and their clauses
+	 * are close in memory.</br>
+	 * The bits of p and q keep their ids; the other variables are numbered in
+	 * breadth-first order starting from them, visiting the clauses of each
+	 * variable. The clauses are copied in the order they are first met.
+	 * Must be called right after readFile(); the output still uses the ids of
+	 * the file.
+	 */
+	public void reorder() {
+		
+		if (qu.count() != nTotVars || posVarId != -1)
+			throw new IllegalStateException("reorder() must be called right after readFile()");
+		
+		int[] newId = new int[nTotVars];
+		Arrays.fill(newId, -1);
+		// order[k] = old id of the variable with new id k, also the queue of the visit
+		int[] order = new int[nTotVars];
+		int next = 0;
+		
+		for (int i = startIndexP; i <= endIndexQ; ++i) {
+			newId[i] = next;
+			order[next++] = i;
+		}
+		
+		List<Clause> reordered = new ArrayList<Clause>(clauses.size());
+		Set<Clause> placed = Collections.newSetFromMap(new IdentityHashMap<Clause, Boolean>());
+		int scan = 0;
+		
+		for (int head = 0; head < nTotVars; ++head) {
+			
+			// not reachable from p and q: start again from the first one not visited
+			if (head == next) {
+				while (newId[scan] != -1)
+					++scan;
+				newId[scan] = next;
+				order[next++] = scan;
+			}
+			
+			for (Clause s : variables.get(order[head]).clauses()) {
+				if (!placed.add(s))
+					continue;
+				reordered.add(s);
+				for (int j = 0; j < s.nColumns(); ++j) {
+					int u = s.getVar(j);
+					if (newId[u] == -1) {
+						newId[u] = next;
+						order[next++] = u;
+					}
+				}
+			}
+		}
+		// groups without variables are kept at the end
+		for (Clause s : clauses)
+			if (placed.add(s))
+				reordered.add(s);
+		
+		int[] newOriginalId = new int[nTotVars];
+		renamedId = new int[nTotVars];
+		for (int k = 0; k < nTotVars; ++k) {
+			newOriginalId[k] = originalId(order[k]);
+			renamedId[newOriginalId[k]] = k;
+		}
+		originalId = newOriginalId;
+		
+		variables = new TreeMap<Integer, Variable>();
+		for (int i = 0; i < nTotVars; ++i)
+			variables.put(i, new Variable(i, trail));
+		
+		// copies are allocated one after the other, so they are contiguous
+		clauses = new ArrayList<Clause>(reordered.size());
+		for (Clause s : reordered) {
+			Clause copy = new Clause(s, this);
+			copy.renumber(newId);
+			addClause(copy);
+		}
+		
+		if(offHeap)
+			packClauses();
 	}
 
 	/**
 	 * 
 	 * @return The initial number of variables in the problem.
 	 */
-	private int getnTotVars() {
+	int getnTotVars() {
 		return nTotVars;
 	}
 
@@ -473,7 +1670,7 @@ public class Problem {
 	 * 
 	 * @return The initial number of clauses in the problem.
 	 */
-	private int getnTotClauses() {
+	int getnTotClauses() {
 		return nTotClauses;
 	}
 
@@ -563,27 +1760,49 @@ public class Problem {
 		
 		if(positiveMonoClause.size() > 0)
 		positiveMonoClause.stream().forEach(s -> {
-			qu.union(posVarId, s.getVarOfMonoClause());
+			union(posVarId, s.getVarOfMonoClause());
 		});
 		
 		if(negativeMonoClause.size() > 0)
 		negativeMonoClause.stream().forEach(s -> {
-			qu.union(negVarId, s.getVarOfMonoClause());
+			union(negVarId, s.getVarOfMonoClause());
 		});
 
-		qu.disj(posVarId, negVarId);
+		disj(posVarId, negVarId);
 
 
 
 	}
 
-	private void assignVariable(int idVar, boolean value) {
+	/**
+	 * Same as assignVariable(), for a value found by both branches of split:
+	 * its lemma is written after the ones with both signs of split.
+	 */
+	void assignVariable(int idVar, boolean value, int split) {
+		proofSplit = proof == null ? null : new int[] { split };
+		assignVariable(idVar, value);
+		proofSplit = null;
+	}
+	
+	void assignVariable(int idVar, boolean value) {
 		//System.out.println("Assegno a " + normalizedVar(idVar) + " il valore : " + value);
 		//TODO modify, implement union with rootTrue e rootFalse
 		
 		int rootTrue = qu.find(posVarId);
 		int rootFalse = qu.find(negVarId);
 		
+		// the value before the contradiction it may cause, nothing after the empty clause
+		if(proving()) {
+			if(assuming)
+				proof.assumeUnit(idVar, value);
+			else
+				proof.addUnit(idVar, value, proofSplit);
+		}
+		
+		//the variable is already known to have the other value
+		if(qu.find(idVar) == (value ? rootFalse : rootTrue))
+			raiseConflict();
+		
 		variables.get(idVar).assignValue(value);
 		
 		if(value == true) {
@@ -609,7 +1828,7 @@ public class Problem {
 		
 
 		
-		System.out.println(String.format(
+		log(String.format(
 				"nBitProduct: %d\n"
 				+ "startIndexP: %d\n"
 				+ "endIndexP: %d\n"
@@ -635,8 +1854,8 @@ public class Problem {
 		this.p = new BigInteger(p.reverse().toString(),2);
 		this.q = new BigInteger(q.reverse().toString(),2);
 		
-		System.out.println("pStr="+p+"\nqStr="+q);
-		System.out.println("p="+this.p+"\nq="+this.q);
+		log("pStr="+p+"\nqStr="+q);
+		log("p="+this.p+"\nq="+this.q);
 	}
 	
 	private boolean resultIsValid() {
@@ -651,6 +1870,77 @@ public class Problem {
 		return qu;
 	}
 	
+	List<Clause> getClauses() {
+		return clauses;
+	}
+	
+	int getStartIndexP() {
+		return startIndexP;
+	}
+	
+	int getEndIndexP() {
+		return endIndexP;
+	}
+	
+	int getStartIndexQ() {
+		return startIndexQ;
+	}
+	
+	int getEndIndexQ() {
+		return endIndexQ;
+	}
+	
+	public Trail getTrail() {
+		return trail;
+	}
+	
+	/**
+	 * Opens a speculative level: assignments, clause reductions and relations
+	 * made from now on can be reverted with {@link #popLevel()}.</br>
+	 * posVarId and negVarId must be already defined (after the first
+	 * monoclause pass), because they are not recorded.
+	 */
+	public void pushLevel() {
+		trail.pushLevel();
+	}
+	
+	/**
+	 * Reverts everything done since the matching {@link #pushLevel()}.
+	 */
+	public void popLevel() {
+		trail.popLevel();
+		if(conflictLevel > trail.level())
+			conflictLevel = -1;
+		//the queue of known variables may refer to undone relations
+		scanAllKnown = true;
+		sortClauses();
+	}
+	
+	/**
+	 * 
+	 * @return True if both p and q fit in their bits with the given length
+	 *         difference.
+	 */
+	private boolean canSupposeDiffLength(int diff) {
+		int lengthN = n.bitLength();
+		int realLenP = (int)Math.ceil((double)(lengthN + diff) / 2);
+		int realLenQ = (int)Math.ceil((double)(lengthN - diff) / 2);
+		
+		return realLenQ >= 2 && realLenP <= endIndexP+1 && realLenQ <= endIndexQ-startIndexQ+1;
+	}
+	
+	/**
+	 * Fixes bits 1..nBits of p to the bits of value (see
+	 * {@link SolveOptions#setCube(int, int)}).
+	 */
+	private void supposeCube(int nBits, int value) {
+		if(nBits == 0)
+			return;
+		log("Cube: " + nBits + " bits of P = " + value);
+		for(int i = 0; i < nBits && startIndexP + 1 + i <= endIndexP; ++i)
+			assignVariable(startIndexP + 1 + i, (value >> i & 1) == 1);
+	}
+	
 	private void supposeDiffLength(int diff) {
 		
 		int realLenP, realLenQ;
@@ -677,8 +1967,11 @@ public class Problem {
 		int startZeroP = realLenP, startZeroQ = structLenP+realLenQ;
 		int endZeroP = structLenP-1, endZeroQ = structLenP+structLenQ-1;
 		
-		System.out.println("Setting Zero:\nP => ["+startZeroP+".."+endZeroP+"]");
-		System.out.println("Q => ["+startZeroQ+".."+endZeroQ+"]");
+		// only with the same length (q, p) is a solution too
+		symmetryBits = options.isSymmetryBreaking() && realLenP == realLenQ ? realLenP : 0;
+		
+		log("Setting Zero:\nP => ["+startZeroP+".."+endZeroP+"]");
+		log("Q => ["+startZeroQ+".."+endZeroQ+"]");
 
 
 		for(int i = startZeroP; i <= endZeroP; ++i)
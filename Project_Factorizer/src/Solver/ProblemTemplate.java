@@ -0,0 +1,177 @@
+package Solver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The multiplier of one bit length without the number to factorize.</br>
+ * The CNFs of two numbers with the same bit length differ only in the signs of
+ * the unit clauses on the output bits, so the template keeps the problem read
+ * once (groups built and classified, renumbered and off-heap if they were)
+ * without its unit clauses, and {@link #instantiate(BigInteger)} makes a copy
+ * with the unit clauses of another number. They are solved by solve() like
+ * the ones read from the file, through solveMonoClause().</br>
+ * The unit clauses must be the output bits from the least significant, in
+ * file order, as written by the generator: this is checked against the number
+ * of the file the template is made from.</br>
+ * {@link #read(String)} keeps one template for every bit length, so in a
+ * batch only the header of the files after the first is read. A file whose
+ * problem line does not give the variables and clauses of the template (made
+ * by another generator) is read in full instead.
+ */
+public class ProblemTemplate {
+
+	// templates by bit length of N
+	private static final Map<Integer, ProblemTemplate> CACHE = new ConcurrentHashMap<Integer, ProblemTemplate>();
+
+	// the problem without the unit clauses of the output bits
+	private Problem base;
+	private int bitLength;
+	// outputs[k] = variable of bit k of N
+	private int[] outputs;
+	// problem line of the file the template is made from
+	private int nVars;
+	private int nClauses;
+
+	/**
+	 * Makes the template of a problem just read (and possibly reordered). The
+	 * problem becomes the template and must not be solved.
+	 */
+	public ProblemTemplate(Problem problem) {
+
+		BigInteger n = problem.getN();
+		int[] units = problem.removeUnitClauses();
+
+		outputs = new int[units.length];
+		for (int k = 0; k < units.length; ++k) {
+			if ((units[k] & 1) == 1 != n.testBit(k))
+				throw new IllegalArgumentException("unit clause " + k + " is not bit " + k + " of " + n);
+			outputs[k] = units[k] >> 1;
+		}
+		if (n.bitLength() > outputs.length)
+			throw new IllegalArgumentException(n + " has more bits than the unit clauses");
+
+		base = problem;
+		bitLength = n.bitLength();
+		nVars = problem.getnTotVars();
+		nClauses = problem.getnTotClauses();
+	}
+
+	// renumbered after the unit clauses are taken out, while they are still in file order
+	private ProblemTemplate(Problem problem, boolean reorder) {
+		this(problem);
+		if (!reorder)
+			return;
+		base.reorder();
+		for (int k = 0; k < outputs.length; ++k)
+			outputs[k] = base.renamedId(outputs[k]);
+	}
+
+	/**
+	 *
+	 * @return A problem for n, as if it were read from its file.
+	 */
+	public Problem instantiate(BigInteger n) {
+
+		if (n.bitLength() != bitLength)
+			throw new IllegalArgumentException(n + " has not " + bitLength + " bits");
+
+		Problem ret = base.copyTemplate();
+		ret.setModulus(n);
+		for (int k = 0; k < outputs.length; ++k)
+			ret.addUnitClause(outputs[k], n.testBit(k));
+		ret.packIfOffHeap();
+		return ret;
+	}
+
+	public int getBitLength() {
+		return bitLength;
+	}
+
+	/**
+	 * Same as {@code Problem.readFile(path)}, but the clauses are read only
+	 * the first time a bit length is seen; the other files are instantiated
+	 * from the template of their bit length.
+	 */
+	public static Problem read(String path) {
+		return read(path, Problem::new, false);
+	}
+
+	/**
+	 * Same as {@link #read(String)} for problems with their own settings.
+	 * 
+	 * @param factory
+	 *            Makes the problems before they are read, with their threads
+	 *            and off-heap mode. The instances of a template keep the
+	 *            settings of the problem it was read into.
+	 * @param reorder
+	 *            True to call {@code Problem.reorder()} on the problems read.
+	 */
+	public static Problem read(String path, Supplier<Problem> factory, boolean reorder) {
+
+		BigInteger n;
+		int[] problemLine = new int[2];
+		try {
+			n = readHeader(path, problemLine);
+		} catch (IOException e) {
+			System.err.println("Error during file reading: " + path);
+			return null;
+		}
+
+		ProblemTemplate template = CACHE.computeIfAbsent(n.bitLength(),
+				bits -> new ProblemTemplate(readFile(path, factory, false), reorder));
+		if (template.nVars != problemLine[0] || template.nClauses != problemLine[1])
+			return readFile(path, factory, reorder);
+		return template.instantiate(n);
+	}
+
+	private static Problem readFile(String path, Supplier<Problem> factory, boolean reorder) {
+		Problem ret = factory.get();
+		ret.readFile(path);
+		if (reorder)
+			ret.reorder();
+		return ret;
+	}
+
+	/**
+	 * Forgets the templates kept by {@link #read(String)}.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Reads the comments and the problem line, as readHeaderLine() does.
+	 * 
+	 * @param problemLine
+	 *            Receives the number of variables and of clauses.
+	 * @return The number in the comment at line 4.
+	 */
+	private static BigInteger readHeader(String path, int[] problemLine) throws IOException {
+		BigInteger ret = null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(CompressedInput.open(path)))) {
+			String line;
+			for (int numberLine = 1; (line = reader.readLine()) != null; ++numberLine) {
+				String[] fields = line.split(" ");
+				if (line.startsWith("c")) {
+					if (numberLine == 4)
+						ret = new BigInteger(fields[5]);
+					continue;
+				}
+				if (!line.startsWith("p"))
+					break;
+				problemLine[0] = Integer.decode(fields[2]);
+				problemLine[1] = Integer.decode(fields[3]);
+				if (ret != null)
+					return ret;
+				break;
+			}
+		}
+		throw new IOException("no number to factorize or problem line in " + path);
+	}
+}
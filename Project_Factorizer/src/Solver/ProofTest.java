@@ -0,0 +1,139 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProofTest {
+
+	@Test
+	public void testRefutedSplitIsRup() throws Exception {
+		// the length difference 0 of 221 = 17 * 13 is refuted after probing
+		File dir = Files.createTempDirectory("proof").toFile();
+		File cnf = new File(dir, "n221.cnf");
+		String proof = new File(dir, "proof").getPath();
+		Benchmark.writeInstance(BigInteger.valueOf(221), cnf.getPath());
+
+		Problem problem = new Problem();
+		problem.readFile(cnf.getPath());
+		problem.setProofPath(proof);
+		SolveResult result = problem.solve(new SolveOptions().setVerbose(false).setLengthDifference(0));
+		assertTrue("Differenza 0 non refutata", result.isRefuted());
+
+		List<int[]> clauses = readDimacs(cnf);
+		clauses.addAll(readDimacs(new File(proof + ".diff0.assumptions")));
+		byte[] common = Files.readAllBytes(new File(proof).toPath());
+		byte[] split = Files.readAllBytes(new File(proof + ".diff0").toPath());
+
+		boolean empty = false;
+		for (byte[] records : new byte[][] { common, split }) {
+			int i = 0;
+			while (i < records.length && !empty) {
+				char tag = (char) records[i++];
+				List<Integer> literals = new ArrayList<Integer>();
+				while (true) {
+					int u = 0;
+					for (int shift = 0;; shift += 7) {
+						int b = records[i++];
+						u |= (b & 0x7f) << shift;
+						if ((b & 0x80) == 0)
+							break;
+					}
+					if (u == 0)
+						break;
+					literals.add((u & 1) == 1 ? -(u >> 1) : u >> 1);
+				}
+				int[] clause = sorted(literals);
+
+				if (tag == 'd') {
+					for (int k = 0; k < clauses.size(); ++k)
+						if (Arrays.equals(clauses.get(k), clause)) {
+							clauses.remove(k);
+							break;
+						}
+					continue;
+				}
+				assertEquals("Record sconosciuto", 'a', tag);
+				assertTrue("Lemma non RUP: " + Arrays.toString(clause), isRup(clauses, clause));
+				clauses.add(clause);
+				empty = clause.length == 0;
+			}
+		}
+		assertTrue("Manca la clausola vuota", empty);
+	}
+
+	// true if unit propagation on the clauses with the lemma false reaches a contradiction
+	private static boolean isRup(List<int[]> clauses, int[] lemma) {
+
+		int nVars = 0;
+		for (int[] clause : clauses)
+			for (int literal : clause)
+				nVars = Math.max(nVars, Math.abs(literal));
+		for (int literal : lemma)
+			nVars = Math.max(nVars, Math.abs(literal));
+		// value[v] = 1 true, -1 false, 0 unknown
+		int[] value = new int[nVars + 1];
+		for (int literal : lemma) {
+			if (value[Math.abs(literal)] == (literal > 0 ? 1 : -1))
+				return true;
+			value[Math.abs(literal)] = literal > 0 ? -1 : 1;
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int[] clause : clauses) {
+				int unknown = 0;
+				int nUnknown = 0;
+				boolean satisfied = false;
+				for (int literal : clause) {
+					int v = value[Math.abs(literal)] * (literal > 0 ? 1 : -1);
+					if (v == 1) {
+						satisfied = true;
+						break;
+					}
+					if (v == 0) {
+						unknown = literal;
+						++nUnknown;
+					}
+				}
+				if (satisfied || nUnknown > 1)
+					continue;
+				if (nUnknown == 0)
+					return true;
+				value[Math.abs(unknown)] = unknown > 0 ? 1 : -1;
+				changed = true;
+			}
+		}
+		return false;
+	}
+
+	private static List<int[]> readDimacs(File file) throws IOException {
+		List<int[]> ret = new ArrayList<int[]>();
+		for (String line : Files.readAllLines(file.toPath())) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("c") || line.startsWith("p"))
+				continue;
+			List<Integer> literals = new ArrayList<Integer>();
+			for (String token : line.split("\\s+"))
+				if (!token.equals("0"))
+					literals.add(Integer.parseInt(token));
+			ret.add(sorted(literals));
+		}
+		return ret;
+	}
+
+	private static int[] sorted(List<Integer> literals) {
+		int[] ret = literals.stream().mapToInt(Integer::intValue).toArray();
+		Arrays.sort(ret);
+		return ret;
+	}
+}
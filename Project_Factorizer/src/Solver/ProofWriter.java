@@ -0,0 +1,368 @@
+package Solver;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the facts derived by the solver as a binary {@code DRAT} proof.</br>
+ * Every record is {@code 'a'} (added clause) or {@code 'd'} (deleted clause)
+ * followed by the literals and a 0. A literal of the variable with id
+ * {@code i} (starting from 0) is written as the unsigned LEB128 encoding of
+ * {@code 2*(i+1)} if positive, {@code 2*(i+1)+1} if negative.</br>
+ * Unit: {@code (x)}. Equivalence x = y: {@code (-x y) (x -y)}. Anti-equivalence
+ * x != y: {@code (x y) (-x -y)}. Contradiction: the empty clause.</br>
+ * Binary proofs can be concatenated, so the proof of a single length
+ * difference is the proof of the common steps followed by its own.</br>
+ * The facts that are supposed and not derived (the length difference, the
+ * cube, the relations of a checkpoint, the symmetry breaking, the values of
+ * the local search) are not lemmas: they go to the assumptions file, as
+ * DIMACS clauses to add to the CNF the proof is checked against.</br>
+ * A fact that a rule reads from the rows of a group together with the
+ * relations of its columns is not always found by unit propagation: it is
+ * written after the same clause with every sign of the other columns of the
+ * group (the split), from the longest ones, each of them a resolvent of two
+ * longer ones, the longest ones false on every row they do not satisfy.</br>
+ * Deletions are written with the rows of the clause as it was read (see
+ * {@code Clause.keepOriginal()}), the ones the checker knows.</br>
+ * The lemmas of a branch x = v of a lookahead are kept in memory (see
+ * {@link #branch(int, boolean)}), each of them with the literal of x that is
+ * false in the branch: they are RUP wherever the branch was, and the
+ * contradiction of a failed branch becomes the unit of the other value.</br>
+ * Records are written in a buffer; full buffers are written to the file by a
+ * background thread while the solver fills the next one.
+ */
+public class ProofWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int N_BUFFERS = 4;
+	// longest record: tag, 2 literals, a split on GroupTable.MAX_COLUMNS columns and the literal of a branch of at most 5 bytes, 0
+	private static final int MAX_RECORD = 64;
+	// tells the flusher to stop
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private FileChannel channel;
+	// buffers ready to be written
+	private BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(N_BUFFERS + 1);
+	// buffers already written, ready to be filled
+	private BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(N_BUFFERS);
+	// buffer being filled
+	private ByteBuffer current;
+	private Thread flusher;
+	// first error of the flusher, reported on close
+	private volatile IOException error;
+	// originalId[i] = id of variable i in the file, null if they are the same
+	private int[] originalId;
+	// DIMACS clauses of the assumptions, null if there is no assumptions file
+	private Writer assumptions;
+	// literal added to every lemma of a branch kept in memory, id -1 if none
+	private int branchId = -1;
+	private boolean branchSign;
+
+	/**
+	 * Creates (or truncates) the proof file and starts the flusher.
+	 *
+	 * @param path
+	 *            The location of the proof.
+	 */
+	public ProofWriter(String path) throws IOException {
+		this(path, null);
+	}
+
+	/**
+	 * Same as {@link #ProofWriter(String)}, for renumbered variables.
+	 *
+	 * @param originalId
+	 *            originalId[i] is the id in the file of variable i, null if the
+	 *            variables have not been renumbered.
+	 */
+	public ProofWriter(String path, int[] originalId) throws IOException {
+		this(path, originalId, null);
+	}
+
+	/**
+	 * Same as {@link #ProofWriter(String, int[])}, with the file where the
+	 * assumptions are written.
+	 *
+	 * @param assumptionsPath
+	 *            The location of the assumptions, null if there are none.
+	 */
+	public ProofWriter(String path, int[] originalId, String assumptionsPath) throws IOException {
+		this.originalId = originalId;
+		if (assumptionsPath != null)
+			assumptions = new BufferedWriter(new FileWriter(assumptionsPath));
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		current = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		for (int i = 1; i < N_BUFFERS; ++i)
+			free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+		flusher = new Thread(this::flushLoop, "proof-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	// a proof in memory for the branch id = value, it grows as needed
+	private ProofWriter(int[] originalId, int id, boolean value) {
+		this.originalId = originalId;
+		branchId = id;
+		branchSign = !value;
+		current = ByteBuffer.allocate(MAX_RECORD * 16);
+	}
+
+	/**
+	 * A proof kept in memory for the lemmas found with id = value, to be
+	 * written in this one by {@link #addRecords(byte[])} if they are used.
+	 * Its deletions are dropped: the lemmas after the branch are checked with
+	 * the clauses it deleted.
+	 */
+	public ProofWriter branch(int id, boolean value) {
+		return new ProofWriter(originalId, id, value);
+	}
+
+	/**
+	 * @return The records of a proof kept in memory.
+	 */
+	public byte[] records() {
+		return Arrays.copyOf(current.array(), current.position());
+	}
+
+	/**
+	 * Writes the records of a branch (see {@link #records()}).
+	 */
+	public void addRecords(byte[] records) {
+		int offset = 0;
+		while (offset < records.length) {
+			if (!current.hasRemaining())
+				swap();
+			int length = Math.min(current.remaining(), records.length - offset);
+			current.put(records, offset, length);
+			offset += length;
+		}
+	}
+
+	public void addUnit(int id, boolean value) {
+		addUnit(id, value, null);
+	}
+
+	/**
+	 * @param split
+	 *            the columns of the group the value comes from, null if it
+	 *            follows by unit propagation.
+	 */
+	public void addUnit(int id, boolean value, int[] split) {
+		lemma(split, new int[] { id }, new boolean[] { value });
+	}
+
+	public void addEquivalence(int p, int q) {
+		addEquivalence(p, q, null);
+	}
+
+	public void addEquivalence(int p, int q, int[] split) {
+		lemma(split, new int[] { p, q }, new boolean[] { false, true });
+		lemma(split, new int[] { p, q }, new boolean[] { true, false });
+	}
+
+	public void addAntiEquivalence(int p, int q) {
+		addAntiEquivalence(p, q, null);
+	}
+
+	public void addAntiEquivalence(int p, int q, int[] split) {
+		lemma(split, new int[] { p, q }, new boolean[] { true, true });
+		lemma(split, new int[] { p, q }, new boolean[] { false, false });
+	}
+
+	// the clause, after the ones with the signs of the columns of split that are not in it
+	private void lemma(int[] split, int[] ids, boolean[] signs) {
+
+		int[] other = new int[split == null ? 0 : split.length];
+		int nOther = 0;
+		if (split != null)
+			columns: for (int column : split) {
+				for (int id : ids)
+					if (id == column)
+						continue columns;
+				other[nOther++] = column;
+			}
+
+		// the clauses with the first length columns of other, for every sign
+		for (int length = nOther; length >= 0; --length)
+			for (int mask = 0; mask < 1 << length; ++mask) {
+				begin('a');
+				for (int k = 0; k < ids.length; ++k)
+					literal(ids[k], signs[k]);
+				for (int k = 0; k < length; ++k)
+					literal(other[k], (mask >> k & 1) == 1);
+				if (branchId != -1)
+					literal(branchId, branchSign);
+				end();
+			}
+	}
+
+	/**
+	 * Writes the unit clause of a supposed value in the assumptions file.
+	 */
+	public void assumeUnit(int id, boolean value) {
+		assumption(dimacs(id, value));
+	}
+
+	/**
+	 * Writes the binary clause of a supposed fact in the assumptions file.
+	 */
+	public void assumeClause(int p, boolean signP, int q, boolean signQ) {
+		assumption(dimacs(p, signP) + " " + dimacs(q, signQ));
+	}
+
+	public void assumeEquivalence(int p, int q) {
+		assumeClause(p, false, q, true);
+		assumeClause(p, true, q, false);
+	}
+
+	public void assumeAntiEquivalence(int p, int q) {
+		assumeClause(p, true, q, true);
+		assumeClause(p, false, q, false);
+	}
+
+	private String dimacs(int id, boolean positive) {
+		if (originalId != null)
+			id = originalId[id];
+		return (positive ? "" : "-") + (id + 1);
+	}
+
+	private void assumption(String literals) {
+		if (assumptions == null)
+			throw new IllegalStateException("no assumptions file for this proof");
+		try {
+			assumptions.write(literals + " 0\n");
+		} catch (IOException e) {
+			if (error == null)
+				error = e;
+		}
+	}
+
+	/**
+	 * Adds the empty clause: the current assumptions are contradictory.
+	 */
+	public void addEmpty() {
+		addEmpty(null);
+	}
+
+	/**
+	 * @param split
+	 *            the columns of the group that has no model left, null if the
+	 *            contradiction follows by unit propagation.
+	 */
+	public void addEmpty(int[] split) {
+		lemma(split, new int[0], new boolean[0]);
+	}
+
+	/**
+	 * Deletes every row of the clause as it was read, the clauses added to
+	 * the checker. Nothing is written if the rows have not been kept.
+	 */
+	public void deleteClause(Clause clause) {
+		int[] vars = clause.getOriginalVars();
+		int[] rows = clause.getOriginalRows();
+		if (vars == null || branchId != -1)
+			return;
+		for (int row : rows) {
+			begin('d');
+			for (int j = 0; j < vars.length; ++j)
+				literal(vars[j], (row >> j & 1) == 1);
+			end();
+		}
+	}
+
+	private void begin(char tag) {
+		if (current.remaining() < MAX_RECORD)
+			swap();
+		current.put((byte) tag);
+	}
+
+	private void literal(int id, boolean positive) {
+		if (originalId != null)
+			id = originalId[id];
+		int u = 2 * (id + 1) + (positive ? 0 : 1);
+		while ((u & ~0x7f) != 0) {
+			current.put((byte) ((u & 0x7f) | 0x80));
+			u >>>= 7;
+		}
+		current.put((byte) u);
+	}
+
+	private void end() {
+		current.put((byte) 0);
+	}
+
+	// hands the current buffer to the flusher and takes a free one
+	private void swap() {
+		if (channel == null) {
+			// in memory: the records go on in a buffer twice as large
+			ByteBuffer larger = ByteBuffer.allocate(current.capacity() * 2);
+			current.flip();
+			current = larger.put(current);
+			return;
+		}
+		current.flip();
+		try {
+			full.put(current);
+			current = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while writing the proof", e);
+		}
+		current.clear();
+	}
+
+	private void flushLoop() {
+		try {
+			while (true) {
+				ByteBuffer buffer = full.take();
+				if (buffer == END)
+					return;
+				try {
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				} catch (IOException e) {
+					if (error == null)
+						error = e;
+				}
+				buffer.clear();
+				free.put(buffer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the remaining records, stops the flusher and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			current.flip();
+			full.put(current);
+			full.put(END);
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+			if (assumptions != null)
+				assumptions.close();
+		}
+		if (error != null)
+			throw error;
+	}
+}
@@ -1,7 +1,8 @@
 package Solver;
 
-import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 
 /**
  * The {@code WeightedQuickUnionPathCompressionUF} class represents a unionfind
@@ -26,10 +27,32 @@ import java.util.stream.Collectors;
 public class QUForest {
 	private int[] parent; // parent[i] = parent of i
 	private int[] enemy; // enemy[i] = enemy of i
+	private int[] next; // next[i] = next site in the component of i (circular list)
 	private int[] size; // size[i] = number of sites in tree rooted at i
 						// Note: not necessarily correct if i is not a root node
 	private int count; // number of components
 	private int n; // total number of elements
+	private Trail trail; // records the writes while a level is open, can be null
+	private int[] recorded; // recorded[k*n+i] = level that saved the k-th array at i (parent, enemy, size, next)
+	private int countRecorded; // level that saved count
+	private ConflictListener listener; // told about contradictory relations, can be null
+	private MergeListener mergeListener; // told about merging components, can be null
+
+	/**
+	 * Receives the relations that contradict the current state: a union
+	 * between enemies or a disjunction inside the same component.
+	 */
+	public interface ConflictListener {
+		void conflict(int p, int q, boolean union);
+	}
+
+	/**
+	 * Receives the roots of two components right before they are merged, while
+	 * their member lists are still separate.
+	 */
+	public interface MergeListener {
+		void merging(int rootP, int rootQ);
+	}
 
 	/**
 	 * Initializes an empty unionfind data structure with {@code n} sites
@@ -47,13 +70,31 @@ public class QUForest {
 		parent = new int[n];
 		size = new int[n];
 		enemy = new int[n];
+		next = new int[n];
 		for (int i = 0; i < n; i++) {
 			parent[i] = i;
 			size[i] = 1;
 			enemy[i] = -1;
+			next[i] = i;
 		}
 	}
 
+	/**
+	 * Initializes a copy of another union-find data structure. The copy does
+	 * not share the trail of the original.
+	 *
+	 * @param other
+	 *            the structure to copy
+	 */
+	public QUForest(QUForest other) {
+		count = other.count;
+		n = other.n;
+		parent = other.parent.clone();
+		size = other.size.clone();
+		enemy = other.enemy.clone();
+		next = other.next.clone();
+	}
+
 	/**
 	 * Returns the number of components.
 	 *
@@ -63,6 +104,15 @@ public class QUForest {
 		return count;
 	}
 
+	/**
+	 * Returns the number of sites.
+	 *
+	 * @return {@code n}
+	 */
+	public int nSites() {
+		return n;
+	}
+
 	/**
 	 * Returns the component identifier for the component containing site
 	 * {@code p}.
@@ -75,18 +125,30 @@ public class QUForest {
 	 *             unless {@code 0 <= p < n}
 	 */
 	public int find(int p) {
-		validate(p);
-		int root = p;
-		while (root != parent[root])
-			root = parent[root];
+		int root = root(p);
+		// inside a level the paths are not compressed, the union by size keeps
+		// them logarithmic and nothing has to be recorded
+		if (trail != null && trail.isActive())
+			return root;
 		while (p != root) {
 			int newp = parent[p];
-			parent[p] = root;
+			setParent(p, root);
 			p = newp;
 		}
 		return root;
 	}
 
+	/**
+	 * Same as {@link #find(int)} without compressing the path: the forest is
+	 * only read, so nothing is recorded in the trail.
+	 */
+	int root(int p) {
+		validate(p);
+		while (p != parent[p])
+			p = parent[p];
+		return p;
+	}
+
 	/**
 	 * Returns true if the the two sites are in the same component.
 	 *
@@ -103,6 +165,119 @@ public class QUForest {
 		return find(p) == find(q);
 	}
 
+	/**
+	 * Returns the site after {@code p} in the list of the members of its
+	 * component. Starting from any site and following this method until the
+	 * site comes back visits the whole component once.
+	 *
+	 * @param p
+	 *            the integer representing one site
+	 * @return the next member of the component containing {@code p}
+	 */
+	public int nextMember(int p) {
+		validate(p);
+		return next[p];
+	}
+
+	/**
+	 * Attaches the undo log: while one of its levels is open every write to
+	 * the forest is recorded and reverted by {@code Trail.popLevel()}.
+	 *
+	 * @param trail
+	 *            the undo log shared with the rest of the problem
+	 */
+	public void setTrail(Trail trail) {
+		this.trail = trail;
+		this.recorded = new int[4 * n];
+		trail.setQu(this);
+	}
+
+	public void setConflictListener(ConflictListener listener) {
+		this.listener = listener;
+	}
+
+	public void setMergeListener(MergeListener mergeListener) {
+		this.mergeListener = mergeListener;
+	}
+
+	// reports a contradictory relation, always returns false
+	private boolean conflict(int p, int q, boolean union) {
+		if (listener != null)
+			listener.conflict(p, q, union);
+		return false;
+	}
+
+	// true if the slot has not been saved yet in the current level: popping
+	// the level only needs the value it had when the level was opened
+	private boolean mustRecord(int slot) {
+		if (trail == null || !trail.isActive() || recorded[slot] == trail.stamp())
+			return false;
+		recorded[slot] = trail.stamp();
+		return true;
+	}
+
+	private void setParent(int i, int value) {
+		if (mustRecord(i))
+			trail.recordQu(Trail.QU_PARENT, i, parent[i]);
+		parent[i] = value;
+	}
+
+	private void setEnemy(int i, int value) {
+		if (mustRecord(n + i))
+			trail.recordQu(Trail.QU_ENEMY, i, enemy[i]);
+		enemy[i] = value;
+	}
+
+	private void setSize(int i, int value) {
+		if (mustRecord(2 * n + i))
+			trail.recordQu(Trail.QU_SIZE, i, size[i]);
+		size[i] = value;
+	}
+
+	private void setNext(int i, int value) {
+		if (mustRecord(3 * n + i))
+			trail.recordQu(Trail.QU_NEXT, i, next[i]);
+		next[i] = value;
+	}
+
+	// joins the member lists of two roots, swapping their successors
+	private void link(int rootP, int rootQ) {
+		if (mergeListener != null)
+			mergeListener.merging(rootP, rootQ);
+		int nextP = next[rootP];
+		setNext(rootP, next[rootQ]);
+		setNext(rootQ, nextP);
+	}
+
+	private void setCount(int value) {
+		if (trail != null && trail.isActive() && countRecorded != trail.stamp()) {
+			countRecorded = trail.stamp();
+			trail.recordQu(Trail.QU_COUNT, 0, count);
+		}
+		count = value;
+	}
+
+	// called by the trail to put back an old value, nothing is recorded
+	void restore(int kind, int i, int oldValue) {
+		switch (kind) {
+		case Trail.QU_PARENT:
+			parent[i] = oldValue;
+			break;
+		case Trail.QU_ENEMY:
+			enemy[i] = oldValue;
+			break;
+		case Trail.QU_SIZE:
+			size[i] = oldValue;
+			break;
+		case Trail.QU_COUNT:
+			count = oldValue;
+			break;
+		case Trail.QU_NEXT:
+			next[i] = oldValue;
+			break;
+		}
+	}
+
 	// validate that p is a valid index
 	private void validate(int p) {
 		int n = parent.length;
@@ -119,6 +294,8 @@ public class QUForest {
 	 *            the integer representing one site
 	 * @param q
 	 *            the integer representing the other site
+	 * @return {@code false} if {@code p} and {@code q} are enemies (the
+	 *         listener is notified), {@code true} otherwise
 	 * @throws IllegalArgumentException
 	 *             unless both {@code 0 <= p < n} and {@code 0 <= q < n}
 	 */
@@ -135,7 +312,7 @@ public class QUForest {
 	 * = rootP; size[rootP] += size[rootQ]; } count--; }
 	 */
 
-	public void union(int p, int q) {
+	public boolean union(int p, int q) {
 
 		// find father in union forest
 		int rootP = find(p);
@@ -146,16 +323,16 @@ public class QUForest {
 		int enemyQ = enemy[rootQ];
 
 		if (rootP == rootQ)
-			return; // already in same union tree
+			return true; // already in same union tree
 		if (enemyP == rootQ || enemyQ == rootP)
-			return; // ERROR: union not possible between enemies.
-		--count;
+			return conflict(p, q, true); // ERROR: union not possible between enemies.
+		setCount(count - 1);
 		/*
 		 * case 1: none of them has enemy
 		 */
 		if (enemyP == -1 && enemyQ == -1) {
 			unionStandard(rootP, rootQ);
-			return;
+			return true;
 		}
 
 		/*
@@ -164,12 +341,12 @@ public class QUForest {
 		// P has enemy
 		if (enemyP != -1 && enemyQ == -1) {
 			unionOneEnemy(rootP, rootQ);
-			return;
+			return true;
 		}
 		// Q has enemy
 		if (enemyQ != -1 && enemyP == -1) {
 			unionOneEnemy(rootQ, rootP);
-			return;
+			return true;
 		}
 		/*
 		 * case 3: both have enemies
@@ -177,7 +354,7 @@ public class QUForest {
 		// case 3.a) different enemies
 		if (enemyQ != -1 && enemyP != -1 && enemyP != enemyQ) {
 			unionTwoEnemies(rootP, rootQ);
-			return;
+			return true;
 		}
 		if (enemyQ != -1 && enemyP != -1 && enemyP == enemyQ) { // should never
 																// happen if
@@ -186,36 +363,39 @@ public class QUForest {
 																// implemented
 			unionTwoEnemiesEquals(rootP, rootQ);
 		}
+		return true;
 	}
 
 	private void unionStandard(int rootP, int rootQ) {
+		link(rootP, rootQ);
 		// make smaller root point to larger one
 		if (size[rootP] < size[rootQ]) {
-			parent[rootP] = rootQ;
-			size[rootQ] += size[rootP];
+			setParent(rootP, rootQ);
+			setSize(rootQ, size[rootQ] + size[rootP]);
 		} else {
-			parent[rootQ] = rootP;
-			size[rootP] += size[rootQ];
+			setParent(rootQ, rootP);
+			setSize(rootP, size[rootP] + size[rootQ]);
 		}
 	}
 
 	// rootP must be the one with the enemy
 	private void unionOneEnemy(int rootP, int rootQ) {
 
+		link(rootP, rootQ);
 		if (size[rootP] < size[rootQ]) {
-			parent[rootP] = rootQ;
-			size[rootQ] += size[rootP];
+			setParent(rootP, rootQ);
+			setSize(rootQ, size[rootQ] + size[rootP]);
 
-			enemy[enemy[rootP]] = rootQ; // the new enemy of the (old) enemy of
+			setEnemy(enemy[rootP], rootQ); // the new enemy of the (old) enemy of
 											// P in now Q, the biggest
-			enemy[rootQ] = enemy[rootP]; // Q inherits the enemy of P
-			enemy[rootP] = -1; // enemy of P is resetted to -1
+			setEnemy(rootQ, enemy[rootP]); // Q inherits the enemy of P
+			setEnemy(rootP, -1); // enemy of P is resetted to -1
 		} else {
-			parent[rootQ] = rootP;
-			size[rootP] += size[rootQ];
+			setParent(rootQ, rootP);
+			setSize(rootP, size[rootP] + size[rootQ]);
 			if (enemy[rootQ] != -1)
-				enemy[enemy[rootQ]] = rootP;
-			enemy[rootQ] = -1;
+				setEnemy(enemy[rootQ], rootP);
+			setEnemy(rootQ, -1);
 		}
 
 	}
@@ -226,10 +406,11 @@ public class QUForest {
 		int y = enemy[rootQ];
 		// reset enemy for secondary members, MAYBE UNNECESSARY: will be
 		// overwritted during unionOneEnemy
-		enemy[y] = enemy[rootQ] = -1;
+		setEnemy(y, -1);
+		setEnemy(rootQ, -1);
 		// assign enemy for union, MAYBE UNNECESSARY: is already assigned
-		enemy[x] = rootP;
-		enemy[rootP] = x;
+		setEnemy(x, rootP);
+		setEnemy(rootP, x);
 
 		unionOneEnemy(x, y);
 		unionOneEnemy(rootP, rootQ);
@@ -240,12 +421,19 @@ public class QUForest {
 
 		unionOneEnemy(rootP, rootQ);
 		if (enemy[rootP] != -1) {
-			enemy[enemy[rootP]] = rootP;
+			setEnemy(enemy[rootP], rootP);
 		} else
-			enemy[enemy[rootQ]] = rootQ;
+			setEnemy(enemy[rootQ], rootQ);
 	}
 
-	public void disj(int p, int q) {
+	/**
+	 * Makes the component containing site {@code p} enemy of the component
+	 * containing site {@code q}.
+	 *
+	 * @return {@code false} if {@code p} and {@code q} are in the same
+	 *         component (the listener is notified), {@code true} otherwise
+	 */
+	public boolean disj(int p, int q) {
 
 		int rootP = find(p);
 		int rootQ = find(q);
@@ -254,18 +442,18 @@ public class QUForest {
 		int enemyQ = enemy[rootQ];
 
 		if (enemyP == rootQ && enemyQ == rootP)
-			return; // already enemy
+			return true; // already enemy
 		if (rootP == rootQ)
-			return; // ERROR: 2 equals cannot be different
-		--count;
+			return conflict(p, q, false); // ERROR: 2 equals cannot be different
+		setCount(count - 1);
 		/*
 		 * case 1: none of them has enemy
 		 */
 
 		if (enemyP == -1 && enemyQ == -1) {
-			enemy[rootP] = rootQ;
-			enemy[rootQ] = rootP;
-			return;
+			setEnemy(rootP, rootQ);
+			setEnemy(rootQ, rootP);
+			return true;
 		}
 
 		/*
@@ -274,12 +462,12 @@ public class QUForest {
 		// P has enemy
 		if (enemyP != -1 && enemyQ == -1) {
 			unionOneEnemy(enemyP, rootQ);
-			return;
+			return true;
 		}
 		// Q has enemy
 		if (enemyQ != -1 && enemyP == -1) {
 			unionOneEnemy(enemyQ, rootP);
-			return;
+			return true;
 		}
 
 		/*
@@ -288,6 +476,17 @@ public class QUForest {
 		if (enemyP != -1 && enemyQ != -1) {
 			unionTwoEnemies(rootP, enemyQ);
 		}
+		return true;
+	}
+
+	/**
+	 * Returns the root of the enemy component of the component containing site
+	 * {@code p}.
+	 *
+	 * @return the enemy root, {@code -1} if the component has no enemy
+	 */
+	public int enemyRoot(int p) {
+		return enemy[find(p)];
 	}
 
 	public boolean areEnemy(int p, int q) {
@@ -317,156 +516,27 @@ public class QUForest {
 	/**
 	 * Gives information about the current relations in the system.
 	 * @return A string containing all the relations. Equalities have =, inequalities have !=. Everything is grouped together.
+	 * @see RelationWriter
 	 */
 	public String currentState() {
-		StringBuilder[] v = new StringBuilder[n];
-		
-		
-		// management of equalities
-		for (int i = 0; i < n; ++i) {
-			int rootI = find(i);
-			if (i == rootI) { // he is parent of himself
-				if (v[i] == null) { // alone at the moment
-					v[i] = new StringBuilder(i);
-				} else {// already found a son
-						// do nothing
-				}
-			} else { // he is son of someone else
-				
-				if (v[rootI] == null) { // the father has not been
-											// initialized
-					v[rootI] = new StringBuilder(rootI + " = " + i);
-				} else {
-					if (v[rootI].toString().isEmpty())
-						v[rootI].append(rootI);
-					v[rootI].append(" = " + i);
-				}
-			}
-		}
-		
-		//System.out.println("prints before:\n" + Arrays.asList(v));
-		
-		for(int i=0; i < n; ++i) {
-			if(v[i] != null) {
-				if(!v[i].toString().isEmpty()) {
-					v[i] = new StringBuilder("("+v[i].toString()+")");
-				}
-			}
-		}
-		//System.out.println("prints after:\n" + Arrays.asList(v));
-		// management of inequalities
-		/*
-		System.out.println("parent:\n"+Arrays.toString(parent));
-		System.out.println("enemy:\n" + Arrays.toString(enemy));
-		System.out.println("prints:\n" + Arrays.asList(v));
-		System.out.println("#nonNull: " + Arrays.asList(v).stream().filter(s -> s != null).count());
-		*/
-		
-		for (int i = 0; i < n; ++i) {
-
-			if (enemy[i] == -1)
-				continue;
-			if (v[i] == null)
-				continue; // should never happen
-
-			if (v[enemy[i]].toString().isEmpty()) { // if the parent enemy has
-													// not sons
-				if (v[i].toString().isEmpty())
-					v[i].append(i + " != " + enemy[i]);
-				else
-					v[i].append(" != " + enemy[i]);
-			} else {
-				if (v[i].toString().isEmpty())
-					v[i].append(i + " != " + v[enemy[i]].toString());
-				else
-					v[i].append(" != " + v[enemy[i]].toString());
-			}
-			v[enemy[i]] = null;
-		}
-		
-		/*
-		 * DEBUG
-		 */
-		/*
-		System.out.println("parent:\n"+Arrays.toString(parent));
-		System.out.println("enemy:\n" + Arrays.toString(enemy));
-		System.out.println("prints:\n" + Arrays.asList(v));
-		System.out.println("#nonNull: " + Arrays.asList(v).stream().filter(s -> s != null).count());
-		*/
-		
-		String ret = Arrays.asList(v).stream().filter(s -> s != null).filter(s -> !s.toString().isEmpty()).collect(Collectors.joining("\n"));
-		return ret;
+		return relations(false);
 	}
 	
+	/**
+	 * Same as {@link #currentState()} with the ids of the file (from 1).
+	 */
 	public String currentStateNormalized() {
-		StringBuilder[] v = new StringBuilder[n];
-		
-		
-		// management of equalities
-		for (int i = 0; i < n; ++i) {
-			if (i == parent[i]) { // he is parent of himself
-				if (v[i] == null) { // alone at the moment
-					v[i] = new StringBuilder((i+1));
-				} else {// already found a son
-						// do nothing
-				}
-			} else { // he is son of someone else
-				if (v[parent[i]] == null) { // the father has not been
-											// initialized
-					v[parent[i]] = new StringBuilder((parent[i]+1) + " = " + (i+1));
-				} else {
-					if (v[parent[i]].toString().isEmpty())
-						v[parent[i]].append((parent[i]+1));
-					v[parent[i]].append(" = " + (i+1));
-				}
-			}
-		}
-		
-		//System.out.println("prints before:\n" + Arrays.asList(v));
-		
-		for(int i=0; i < n; ++i) {
-			if(v[i] != null) {
-				if(!v[i].toString().isEmpty()) {
-					v[i] = new StringBuilder("("+v[i].toString()+")");
-				}
-			}
-		}
-		//System.out.println("prints after:\n" + Arrays.asList(v));
-		// management of inequalities
-		for (int i = 0; i < n; ++i) {
-
-			if (enemy[i] == -1)
-				continue;
-			if (v[i] == null)
-				continue; // should never happen
-
-			if (v[enemy[i]].toString().isEmpty()) { // if the parent enemy has
-													// not sons
-				if (v[i].toString().isEmpty())
-					v[i].append((i+1) + " != " + (enemy[i]+1));
-				else
-					v[i].append(" != " + v[enemy[i]]);
-			} else {
-				if (v[i].toString().isEmpty())
-					v[i].append((i+1) + " != " + v[enemy[i]].toString());
-				else
-					v[i].append(" != " + v[enemy[i]].toString());
-			}
-			v[enemy[i]] = null;
+		return relations(true);
+	}
+	
+	private String relations(boolean oneBased) {
+		StringWriter ret = new StringWriter();
+		try {
+			new RelationWriter(this).writeText(ret, oneBased);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // never thrown by a StringWriter
 		}
-		
-		/*
-		 * DEBUG
-		 */
-		/*
-		System.out.println("parent:\n"+Arrays.toString(parent));
-		System.out.println("enemy:\n" + Arrays.toString(enemy));
-		System.out.println("prints:\n" + Arrays.asList(v));
-		System.out.println("#nonNull: " + Arrays.asList(v).stream().filter(s -> s != null).count());
-		*/
-		
-		String ret = Arrays.asList(v).stream().filter(s -> s != null).filter(s -> !s.toString().isEmpty()).collect(Collectors.joining("\n"));
-		return ret;
+		return ret.toString();
 	}
 	
 	/**
@@ -2,6 +2,12 @@ package Solver;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -67,4 +73,134 @@ public class QUForestTest {
 		log.info("@Test: ended testConnected().");
 	}
 
+	@Test
+	public void testPushPopLevel() {
+		Trail trail = new Trail();
+		tm.setTrail(trail);
+		tm.union(1, 2);
+		tm.disj(3, 4);
+
+		trail.pushLevel();
+		tm.union(1, 3);
+		tm.disj(5, 2);
+		assertTrue("1 e 3 sono sconnessi", tm.connected(1, 3));
+		assertTrue("4 e 2 non sono nemici", tm.areEnemy(4, 2));
+		assertEquals("Ci sono 6 componenti", 6, tm.count());
+
+		trail.popLevel();
+		assertTrue("1 e 2 sono sconnessi", tm.connected(1, 2));
+		assertTrue("3 e 4 non sono nemici", tm.areEnemy(3, 4));
+		assertFalse("1 e 3 sono connessi", tm.connected(1, 3));
+		assertFalse("4 e 2 sono nemici", tm.areEnemy(4, 2));
+		assertEquals("Ci sono 8 componenti", 8, tm.count());
+	}
+
+	@Test
+	public void testConflict() {
+		int[] nConflicts = new int[1];
+		tm.setConflictListener((p, q, union) -> ++nConflicts[0]);
+
+		assertTrue(tm.union(1, 2));
+		assertTrue(tm.disj(2, 3));
+		assertFalse("1 e 3 sono nemici", tm.union(1, 3));
+		assertFalse("1 e 2 sono uguali", tm.disj(1, 2));
+		assertEquals("Ci sono 2 conflitti", 2, nConflicts[0]);
+		assertEquals("Ci sono 8 componenti", 8, tm.count());
+	}
+
+	@Test
+	public void testMembers() {
+		Trail trail = new Trail();
+		tm.setTrail(trail);
+		tm.union(1, 2);
+		tm.disj(3, 4);
+		tm.union(5, 3);
+
+		trail.pushLevel();
+		tm.union(6, 4);
+		tm.union(2, 4);
+		assertEquals("1 ha 4 membri", 4, members(1));
+		assertEquals("3 ha 2 membri", 2, members(3));
+		assertEquals("0 ha 1 membro", 1, members(0));
+
+		trail.popLevel();
+		assertEquals("1 ha 2 membri", 2, members(1));
+		assertEquals("4 ha 1 membro", 1, members(4));
+		assertEquals("6 ha 1 membro", 1, members(6));
+	}
+
+	@Test
+	public void testNestedLevels() {
+		Trail trail = new Trail();
+		tm.setTrail(trail);
+		tm.union(1, 2);
+
+		trail.pushLevel();
+		tm.union(2, 3);
+		trail.pushLevel();
+		tm.union(3, 4);
+		tm.disj(4, 5);
+		trail.popLevel();
+		// the slots saved by the inner level are saved again by the outer one
+		tm.union(4, 6);
+		tm.disj(3, 5);
+		assertTrue("1 e 3 sono sconnessi", tm.connected(1, 3));
+		assertFalse("1 e 4 sono connessi", tm.connected(1, 4));
+		assertEquals("Ci sono 6 componenti", 6, tm.count());
+
+		trail.popLevel();
+		assertTrue("1 e 2 sono sconnessi", tm.connected(1, 2));
+		assertFalse("2 e 3 sono connessi", tm.connected(2, 3));
+		assertFalse("4 e 6 sono connessi", tm.connected(4, 6));
+		assertFalse("3 e 5 sono nemici", tm.areEnemy(3, 5));
+		assertEquals("Ci sono 9 componenti", 9, tm.count());
+		assertEquals("1 ha 2 membri", 2, members(1));
+		assertEquals("3 ha 1 membro", 1, members(3));
+	}
+
+	@Test
+	public void testCurrentState() {
+		tm.union(1, 2);
+		tm.disj(3, 4);
+		tm.union(5, 3);
+		tm.disj(0, 9);
+		tm.union(8, 2);
+
+		assertEquals("0 != 9\n(1 = 2 = 8)\n(3 = 5) != 4", tm.currentState());
+		assertEquals("1 != 10\n(2 = 3 = 9)\n(4 = 6) != 5", tm.currentStateNormalized());
+	}
+
+	@Test
+	public void testRelationsRoundTrip() throws IOException {
+		tm.union(1, 2);
+		tm.disj(3, 4);
+		tm.union(5, 3);
+		tm.disj(0, 9);
+		tm.union(6, 4);
+		tm.union(8, 2);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		new RelationWriter(tm).writeBinary(Channels.newChannel(binary));
+		for (boolean oneBased : new boolean[] { false, true }) {
+			StringWriter text = new StringWriter();
+			new RelationWriter(tm).writeText(text, oneBased);
+			StringWriter converted = new StringWriter();
+			RelationWriter.binaryToText(Channels.newChannel(new ByteArrayInputStream(binary.toByteArray())),
+					converted, oneBased);
+			assertEquals("Il dump binario non da' lo stesso testo", text.toString(), converted.toString());
+		}
+	}
+
+	// number of sites in the member list of p, all of them connected to p
+	private int members(int p) {
+		int ret = 0;
+		int member = p;
+		do {
+			assertTrue(member + " e " + p + " sono sconnessi", tm.connected(member, p));
+			++ret;
+			member = tm.nextMember(member);
+		} while (member != p);
+		return ret;
+	}
+
 }
@@ -0,0 +1,95 @@
+package Solver;
+
+import java.util.Arrays;
+
+/**
+ * Root and enemy root of every variable, read from the {@code QUForest} once
+ * per pass of the 4x3 rule, so that the relation between two variables is a
+ * comparison of two array entries instead of two {@code find()} calls.</br>
+ * The cache also remembers when the roots of each variable last changed: a
+ * clause with no relation at a previous check is not tested again until one of
+ * its variables changes component or enemy.</br>
+ * Once the pass adds a relation the snapshot can be old, so the variables of
+ * each clause are read again before it is tested; a clause is never tested on
+ * stale roots.
+ */
+class RelationCache {
+
+	// root[i] = root of variable i at the last refresh
+	private int[] root;
+	// enemyRoot[i] = root of the enemy component of i at the last refresh, -1 if none
+	private int[] enemyRoot;
+	// changedAt[i] = stamp of the last change of root[i] or enemyRoot[i]
+	private int[] changedAt;
+	// grows with every change, clauses remember the stamp of their last check
+	private int stamp;
+	// the forest read by the last refresh
+	private QUForest qu;
+	// number of components at the last refresh
+	private int countAtRefresh;
+
+	RelationCache(int nVars) {
+		root = new int[nVars];
+		enemyRoot = new int[nVars];
+		changedAt = new int[nVars];
+		Arrays.fill(root, -1);
+	}
+
+	/**
+	 * Reads the current roots of every variable.
+	 */
+	void refresh(QUForest qu) {
+
+		this.qu = qu;
+		countAtRefresh = qu.count();
+		++stamp;
+		for (int i = 0; i < root.length; ++i)
+			read(i);
+	}
+
+	// reads the roots of variable i, stamping them if they changed
+	private void read(int i) {
+		int r = qu.find(i);
+		int e = qu.enemyRoot(r);
+		if (r != root[i] || e != enemyRoot[i]) {
+			root[i] = r;
+			enemyRoot[i] = e;
+			changedAt[i] = stamp;
+		}
+	}
+
+	/**
+	 * 
+	 * @return True if variables a and b are equal or different, as they were
+	 *         last read.
+	 */
+	boolean related(int a, int b) {
+		return root[a] == root[b] || (enemyRoot[a] != -1 && enemyRoot[a] == root[b]);
+	}
+
+	/**
+	 * Same as {@code Clause.hasRelation()}, for a clause with 3 columns.
+	 */
+	boolean hasRelation(Clause clause) {
+
+		int a = clause.getVar(0);
+		int b = clause.getVar(1);
+		int c = clause.getVar(2);
+
+		// relations have been added after the refresh
+		if (qu.count() != countAtRefresh) {
+			++stamp;
+			read(a);
+			read(b);
+			read(c);
+		}
+
+		int checked = clause.getNoRelationAt();
+		if (checked != -1 && changedAt[a] <= checked && changedAt[b] <= checked && changedAt[c] <= checked)
+			return false;
+
+		boolean ret = related(a, b) || related(a, c) || related(b, c);
+		clause.setNoRelationAt(ret ? -1 : stamp);
+		return ret;
+	}
+}
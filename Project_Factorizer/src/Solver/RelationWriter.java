@@ -0,0 +1,246 @@
+package Solver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the relations of a {@link QUForest} as they are found, without
+ * building the text in memory.</br>
+ * Every component with more than one member or with an enemy is one line, the
+ * enemy component on the same line as the one with the smaller root:
+ * {@code (root = a = b) != (enemy = c)}, a component of one site is written
+ * without parentheses. Members follow their root in increasing order. These
+ * are the lines of {@code QUForest.currentState()}.</br>
+ * The members are put in order with one counting sort over the roots, so a
+ * dump takes three int arrays of n sites and O(n) time whatever the sizes of
+ * the components.</br>
+ * The binary form is made of varints: n, then one record for every line
+ * (root + 1, number of other members, the members as gaps from the previous
+ * one, enemy root + 1 or 0, and the same for the enemy component) and a 0 at
+ * the end.
+ */
+public class RelationWriter {
+
+	private static final int MAGIC = 0x51555231; // "QUR1"
+	// size of the buffer of the binary dumps
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private QUForest qu;
+	private int n;
+
+	// root[i] = root of the component of i
+	private int[] root;
+	// members of root r: members[start[r]..start[r+1]-1], in increasing order
+	private int[] start;
+	private int[] members;
+
+	public RelationWriter(QUForest qu) {
+		this.qu = qu;
+		this.n = qu.nSites();
+	}
+
+	private void groupByRoot() {
+
+		root = new int[n];
+		start = new int[n + 1];
+		members = new int[n];
+
+		for (int i = 0; i < n; ++i) {
+			// without path compression: a dump does not change the forest
+			root[i] = qu.root(i);
+			++start[root[i] + 1];
+		}
+		for (int r = 0; r < n; ++r)
+			start[r + 1] += start[r];
+		// start[r] is moved forward while filling, then put back
+		for (int i = 0; i < n; ++i)
+			members[start[root[i]]++] = i;
+		for (int r = n; r > 0; --r)
+			start[r] = start[r - 1];
+		start[0] = 0;
+	}
+
+	// true if root r starts a line: it has members or an enemy with a larger root
+	private boolean startsLine(int r) {
+		if (root[r] != r)
+			return false;
+		int enemy = qu.enemyRoot(r);
+		if (enemy != -1)
+			return enemy > r;
+		return start[r + 1] - start[r] > 1;
+	}
+
+	/**
+	 * Writes the lines, separated by '\n'.
+	 *
+	 * @param oneBased
+	 *            true to write the ids of the file (from 1).
+	 */
+	public void writeText(Writer out, boolean oneBased) throws IOException {
+
+		groupByRoot();
+		int shift = oneBased ? 1 : 0;
+		boolean first = true;
+
+		for (int r = 0; r < n; ++r) {
+			if (!startsLine(r))
+				continue;
+			if (!first)
+				out.write('\n');
+			first = false;
+
+			writeComponent(out, r, shift);
+			int enemy = qu.enemyRoot(r);
+			if (enemy != -1) {
+				out.write(" != ");
+				writeComponent(out, enemy, shift);
+			}
+		}
+		out.flush();
+	}
+
+	private void writeComponent(Writer out, int r, int shift) throws IOException {
+		if (start[r + 1] - start[r] == 1) {
+			out.write(Integer.toString(r + shift));
+			return;
+		}
+		out.write('(');
+		out.write(Integer.toString(r + shift));
+		for (int k = start[r]; k < start[r + 1]; ++k)
+			if (members[k] != r) {
+				out.write(" = ");
+				out.write(Integer.toString(members[k] + shift));
+			}
+		out.write(')');
+	}
+
+	/**
+	 * Writes the binary dump, through a buffer of {@link #BUFFER_SIZE} bytes.
+	 */
+	public void writeBinary(WritableByteChannel out) throws IOException {
+
+		groupByRoot();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.putInt(MAGIC);
+		putVarint(out, buffer, n);
+
+		for (int r = 0; r < n; ++r) {
+			if (!startsLine(r))
+				continue;
+			putVarint(out, buffer, r + 1);
+			putComponent(out, buffer, r);
+			int enemy = qu.enemyRoot(r);
+			putVarint(out, buffer, enemy + 1);
+			if (enemy != -1)
+				putComponent(out, buffer, enemy);
+		}
+		putVarint(out, buffer, 0);
+		drain(out, buffer);
+	}
+
+	// the other members of root r: their number, then the gaps
+	private void putComponent(WritableByteChannel out, ByteBuffer buffer, int r) throws IOException {
+		putVarint(out, buffer, start[r + 1] - start[r] - 1);
+		int previous = -1;
+		for (int k = start[r]; k < start[r + 1]; ++k)
+			if (members[k] != r) {
+				putVarint(out, buffer, members[k] - previous);
+				previous = members[k];
+			}
+	}
+
+	private static void putVarint(WritableByteChannel out, ByteBuffer buffer, int value) throws IOException {
+		if (buffer.remaining() < 5)
+			drain(out, buffer);
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static void drain(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			out.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Turns a binary dump into the text of {@link #writeText(Writer, boolean)},
+	 * one record at a time.
+	 */
+	public static void binaryToText(ReadableByteChannel in, Writer out, boolean oneBased) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.flip();
+		if (getInt(in, buffer) != MAGIC)
+			throw new IOException("not a relation dump");
+		getVarint(in, buffer); // n
+		int shift = oneBased ? 1 : 0;
+		boolean first = true;
+
+		int r;
+		while ((r = getVarint(in, buffer)) != 0) {
+			if (!first)
+				out.write('\n');
+			first = false;
+
+			copyComponent(in, buffer, out, r - 1, shift);
+			int enemy = getVarint(in, buffer);
+			if (enemy != 0) {
+				out.write(" != ");
+				copyComponent(in, buffer, out, enemy - 1, shift);
+			}
+		}
+		out.flush();
+	}
+
+	private static void copyComponent(ReadableByteChannel in, ByteBuffer buffer, Writer out, int r, int shift)
+			throws IOException {
+		int size = getVarint(in, buffer);
+		if (size == 0) {
+			out.write(Integer.toString(r + shift));
+			return;
+		}
+		out.write('(');
+		out.write(Integer.toString(r + shift));
+		int member = -1;
+		for (int k = 0; k < size; ++k) {
+			member += getVarint(in, buffer);
+			out.write(" = ");
+			out.write(Integer.toString(member + shift));
+		}
+		out.write(')');
+	}
+
+	private static int getInt(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		int ret = 0;
+		for (int k = 0; k < 4; ++k)
+			ret = ret << 8 | getByte(in, buffer) & 0xFF;
+		return ret;
+	}
+
+	private static int getVarint(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		int ret = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = getByte(in, buffer);
+			ret |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return ret;
+		}
+	}
+
+	private static byte getByte(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		if (!buffer.hasRemaining()) {
+			buffer.clear();
+			if (in.read(buffer) == -1)
+				throw new IOException("truncated relation dump");
+			buffer.flip();
+		}
+		return buffer.get();
+	}
+}
@@ -0,0 +1,188 @@
+package Solver;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counters of the rules of the second phase, per cycle: how many times each
+ * rule (and each case of the 2x2 and 4x3 rules) has been applied, how many
+ * relations it has added and how much time it has taken, together with the
+ * same numbers for the whole pass of each step.</br>
+ * Counters are plain arrays owned by one problem, so the cost is two
+ * {@code System.nanoTime()} calls per application and nothing at all when no
+ * profiler is set ({@code Problem.setProfiler()}). Copies of the problem made
+ * for probing are not profiled, their time is in the probing pass.</br>
+ * {@link #report()} gives a table, {@link #writeCollapsed(String)} the folded
+ * stacks read by flame graph tools (flamegraph.pl, speedscope).
+ */
+public class RuleProfiler {
+
+	public static final int TWO_BY_TWO = 0;
+	public static final int FOUR_BY_THREE = 1;
+	public static final int MOST_TRUE = 2;
+	public static final int MOST_FALSE = 3;
+	public static final int SMALL_GROUPS = 4;
+	public static final int MONO_CLAUSE = 5;
+	public static final int KNOWN_VARS = 6;
+	public static final int PROBING = 7;
+	public static final int SYMMETRY = 8;
+	public static final int CIRCUIT = 9;
+	public static final int LOCAL_SEARCH = 10;
+	public static final int SUBSTITUTION = 11;
+
+	private static final String[] RULE_NAMES = { "2x2", "4x3", "MostTrue", "MostFalse", "small groups",
+			"monoclause", "known vars", "probing", "symmetry", "circuit", "local search", "substitution" };
+	// PARENT[r] = the step whose pass contains the applications of rule r
+	private static final int[] PARENT = { TWO_BY_TWO, FOUR_BY_THREE, FOUR_BY_THREE, FOUR_BY_THREE, SMALL_GROUPS,
+			MONO_CLAUSE, KNOWN_VARS, PROBING, SYMMETRY, CIRCUIT, LOCAL_SEARCH, SUBSTITUTION };
+	private static final int N_RULES = RULE_NAMES.length;
+	// cases 0..5 of the rules, the last one is for applications without a case
+	private static final int N_CASES = 7;
+
+	/**
+	 * Counters of one cycle. Index [rule][case] for the applications, [rule]
+	 * for the passes.
+	 */
+	private static class Cycle {
+		long[][] calls = new long[N_RULES][N_CASES];
+		long[][] relations = new long[N_RULES][N_CASES];
+		long[][] nanos = new long[N_RULES][N_CASES];
+		long[] passRelations = new long[N_RULES];
+		long[] passNanos = new long[N_RULES];
+	}
+
+	private List<Cycle> cycles = new ArrayList<Cycle>();
+	private Cycle current = new Cycle();
+
+	/**
+	 * Counts one application of a rule.
+	 *
+	 * @param ruleCase
+	 *            the case returned by the rule (0..5), -1 if none
+	 */
+	void rule(int rule, int ruleCase, int relationsGained, long nanos) {
+		int c = ruleCase < 0 || ruleCase >= N_CASES - 1 ? N_CASES - 1 : ruleCase;
+		++current.calls[rule][c];
+		current.relations[rule][c] += relationsGained;
+		current.nanos[rule][c] += nanos;
+	}
+
+	/**
+	 * Counts a whole pass of a step over the clauses.
+	 */
+	void pass(int rule, int relationsGained, long nanos) {
+		current.passRelations[rule] += relationsGained;
+		current.passNanos[rule] += nanos;
+	}
+
+	/**
+	 * Closes the current cycle, the next counts go to a new one.
+	 */
+	void endCycle() {
+		cycles.add(current);
+		current = new Cycle();
+	}
+
+	private List<Cycle> allCycles() {
+		List<Cycle> ret = new ArrayList<Cycle>(cycles);
+		ret.add(current);
+		return ret;
+	}
+
+	private static String caseName(int c) {
+		return c == N_CASES - 1 ? "-" : Integer.toString(c);
+	}
+
+	/**
+	 *
+	 * @return A table with the passes and the applications of every rule in
+	 *         every cycle, and the totals.
+	 */
+	public String report() {
+
+		StringBuilder ret = new StringBuilder();
+		Cycle total = new Cycle();
+		List<Cycle> all = allCycles();
+
+		ret.append("==========START PROFILE==========\n");
+		ret.append(String.format("%6s %-13s %5s %10s %10s %12s\n", "cycle", "rule", "case", "calls", "relations",
+				"ms"));
+
+		for (int k = 0; k < all.size(); ++k) {
+			Cycle cycle = all.get(k);
+
+			for (int r = 0; r < N_RULES; ++r) {
+				if (cycle.passNanos[r] != 0)
+					ret.append(String.format("%6d %-13s %5s %10s %10d %12.3f\n", k, RULE_NAMES[r], "pass", "",
+							cycle.passRelations[r], cycle.passNanos[r] / 1e6));
+				total.passRelations[r] += cycle.passRelations[r];
+				total.passNanos[r] += cycle.passNanos[r];
+
+				for (int c = 0; c < N_CASES; ++c) {
+					if (cycle.calls[r][c] == 0)
+						continue;
+					ret.append(String.format("%6d %-13s %5s %10d %10d %12.3f\n", k, RULE_NAMES[r], caseName(c),
+							cycle.calls[r][c], cycle.relations[r][c], cycle.nanos[r][c] / 1e6));
+					total.calls[r][c] += cycle.calls[r][c];
+					total.relations[r][c] += cycle.relations[r][c];
+					total.nanos[r][c] += cycle.nanos[r][c];
+				}
+			}
+		}
+
+		ret.append("TOTAL\n");
+		for (int r = 0; r < N_RULES; ++r) {
+			if (total.passNanos[r] != 0)
+				ret.append(String.format("%6s %-13s %5s %10s %10d %12.3f\n", "", RULE_NAMES[r], "pass", "",
+						total.passRelations[r], total.passNanos[r] / 1e6));
+			for (int c = 0; c < N_CASES; ++c)
+				if (total.calls[r][c] != 0)
+					ret.append(String.format("%6s %-13s %5s %10d %10d %12.3f\n", "", RULE_NAMES[r], caseName(c),
+							total.calls[r][c], total.relations[r][c], total.nanos[r][c] / 1e6));
+		}
+		ret.append("===========END PROFILE===========");
+
+		return ret.toString();
+	}
+
+	/**
+	 * Writes the time of every rule as folded stacks, one line
+	 * {@code solve;cycle k;step[;rule];case nanoseconds} for the applications
+	 * and one {@code solve;cycle k;step nanoseconds} for the rest of each pass.
+	 *
+	 * @param path
+	 *            The location of the file.
+	 */
+	public void writeCollapsed(String path) throws IOException {
+
+		List<Cycle> all = allCycles();
+
+		try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+			for (int k = 0; k < all.size(); ++k) {
+				Cycle cycle = all.get(k);
+
+				// time of each pass spent outside the applications
+				long[] self = cycle.passNanos.clone();
+
+				for (int r = 0; r < N_RULES; ++r) {
+					String stack = "solve;cycle " + k + ";" + RULE_NAMES[PARENT[r]];
+					if (PARENT[r] != r)
+						stack += ";" + RULE_NAMES[r];
+
+					for (int c = 0; c < N_CASES; ++c) {
+						if (cycle.nanos[r][c] == 0)
+							continue;
+						out.println(stack + ";case " + caseName(c) + " " + cycle.nanos[r][c]);
+						self[PARENT[r]] -= cycle.nanos[r][c];
+					}
+				}
+
+				for (int r = 0; r < N_RULES; ++r)
+					if (self[r] > 0)
+						out.println("solve;cycle " + k + ";" + RULE_NAMES[r] + " " + self[r]);
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class SeedTest {
+
+	private static final long SEED = 42;
+
+	@Test
+	public void testSameBitsForAnyThreads() throws Exception {
+		// one solved by the cycles, the others stopped with unknown bits after probing
+		for (int n : new int[] { 221, 143, 899, 3599 }) {
+			File cnf = File.createTempFile("seed" + n, ".cnf");
+			cnf.deleteOnExit();
+			Benchmark.writeInstance(BigInteger.valueOf(n), cnf.getPath());
+
+			SolveResult one = solve(cnf, 1);
+			for (int nThreads : new int[] { 2, 4 }) {
+				SolveResult many = solve(cnf, nThreads);
+				assertEquals("Stato di " + n + " con " + nThreads + " thread", one.getStatus(), many.getStatus());
+				assertEquals("Bit di p di " + n + " con " + nThreads + " thread", one.getPBits(), many.getPBits());
+				assertEquals("Bit di q di " + n + " con " + nThreads + " thread", one.getQBits(), many.getQBits());
+			}
+		}
+	}
+
+	private static SolveResult solve(File cnf, int nThreads) {
+		Problem problem = new Problem();
+		problem.setThreads(nThreads);
+		problem.setSeed(SEED);
+		problem.readFile(cnf.getPath());
+		return problem.solve(new SolveOptions().setVerbose(false));
+	}
+}
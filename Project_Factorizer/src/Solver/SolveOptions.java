@@ -0,0 +1,216 @@
+package Solver;
+
+/**
+ * Limits of a call to {@code Problem.solve(SolveOptions)}.</br>
+ * The solver checks them between the steps of every cycle and between the
+ * probing candidates, so it stops at most one step after a limit is reached;
+ * what has been found until then is in the {@code SolveResult}.</br>
+ * {@link #cancel()} can be called from any thread.
+ */
+public class SolveOptions {
+
+	// wall-clock budget in milliseconds, 0 for no limit
+	private long timeLimit;
+	// maximum number of cycles of the second phase, over all the length differences
+	private int maxCycles = 1000000;
+	// false to solve without printing the progress
+	private boolean verbose = true;
+	private volatile boolean cancelled;
+	// file of the checkpoints, null for no checkpoints
+	private String checkpointPath;
+	// milliseconds between two checkpoints
+	private long checkpointInterval = 60000;
+	// true to continue from the last checkpoint in checkpointPath
+	private boolean resume;
+	// the only length difference to try, -1 to try all of them
+	private int lengthDifference = -1;
+	// bits 1..cubeBits of p are fixed to the bits of cube
+	private int cubeBits;
+	private int cube;
+	// true to look only for p <= q when p and q have the same length
+	private boolean symmetryBreaking;
+	// true to look for equal gates in the circuit (see CircuitSweep)
+	private boolean circuitSweep;
+	// flips of every thread of the local search, 0 for no local search
+	private long localSearchFlips;
+	// true to merge the equivalent columns and remove the implied groups
+	private boolean substitution;
+
+	/**
+	 *
+	 * @param millis
+	 *            Wall-clock budget from the start of solve(), 0 for no limit.
+	 */
+	public SolveOptions setTimeLimit(long millis) {
+		this.timeLimit = millis;
+		return this;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public SolveOptions setMaxCycles(int maxCycles) {
+		this.maxCycles = maxCycles;
+		return this;
+	}
+
+	public int getMaxCycles() {
+		return maxCycles;
+	}
+
+	public SolveOptions setVerbose(boolean verbose) {
+		this.verbose = verbose;
+		return this;
+	}
+
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	/**
+	 * Saves the relations found by the second phase in a file, at the end of a
+	 * cycle when at least {@code intervalMillis} have passed since the last
+	 * checkpoint, and when the solver is stopped by a limit. The file is
+	 * written by a background thread.
+	 *
+	 * @param path
+	 *            The location of the checkpoints, null to disable them.
+	 */
+	public SolveOptions setCheckpoint(String path, long intervalMillis) {
+		this.checkpointPath = path;
+		this.checkpointInterval = intervalMillis;
+		return this;
+	}
+
+	public String getCheckpointPath() {
+		return checkpointPath;
+	}
+
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Continues from the last checkpoint of the same problem in the checkpoint
+	 * file, if there is one: the length differences before the saved one are
+	 * skipped and its relations are added again. The cycle budget counts the
+	 * cycles done before the checkpoint. The proof of a resumed run is not
+	 * checkable, the relations added again have no derivation.
+	 */
+	public SolveOptions setResume(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * Tries only one length difference between p and q; if it is
+	 * contradictory the result is refuted.
+	 *
+	 * @param diff
+	 *            The length difference, -1 to try all of them.
+	 */
+	public SolveOptions setLengthDifference(int diff) {
+		this.lengthDifference = diff;
+		return this;
+	}
+
+	public int getLengthDifference() {
+		return lengthDifference;
+	}
+
+	/**
+	 * Fixes bits 1..nBits of p (bit 0 is always 1) to the bits of
+	 * {@code value}, the least significant to bit 1, after the length
+	 * difference is supposed: one cube of the 2^nBits of a split.
+	 */
+	public SolveOptions setCube(int nBits, int value) {
+		this.cubeBits = nBits;
+		this.cube = value;
+		return this;
+	}
+
+	public int getCubeBits() {
+		return cubeBits;
+	}
+
+	public int getCube() {
+		return cube;
+	}
+
+	/**
+	 * When a length difference gives p and q the same length, (p, q) and
+	 * (q, p) are both solutions: with symmetry breaking only p <= q is
+	 * searched. The constraint is propagated by a step of every cycle. The
+	 * proof of that length difference is not checkable, the values fixed by
+	 * the constraint do not follow from the clauses.
+	 */
+	public SolveOptions setSymmetryBreaking(boolean symmetryBreaking) {
+		this.symmetryBreaking = symmetryBreaking;
+		return this;
+	}
+
+	public boolean isSymmetryBreaking() {
+		return symmetryBreaking;
+	}
+
+	/**
+	 * Rebuilds the multiplier from the groups as an and-inverter graph and
+	 * adds the equalities between the gates that compute the same function:
+	 * after the first phase, after each length difference is supposed and
+	 * before every probing.
+	 */
+	public SolveOptions setCircuitSweep(boolean circuitSweep) {
+		this.circuitSweep = circuitSweep;
+		return this;
+	}
+
+	public boolean isCircuitSweep() {
+		return circuitSweep;
+	}
+
+	/**
+	 * When the cycles stop with unknown bits of p and q, tries to complete
+	 * them with a local search on every thread (see {@code LocalSearch}).
+	 *
+	 * @param maxFlips
+	 *            Flips of every thread, 0 for no local search.
+	 */
+	public SolveOptions setLocalSearch(long maxFlips) {
+		this.localSearchFlips = maxFlips;
+		return this;
+	}
+
+	public long getLocalSearchFlips() {
+		return localSearchFlips;
+	}
+
+	/**
+	 * At the start of every cycle, merges the columns of a group that are in
+	 * the same QUForest class (or in enemy classes) and removes the groups
+	 * implied by another one on the same columns.
+	 */
+	public SolveOptions setSubstitution(boolean substitution) {
+		this.substitution = substitution;
+		return this;
+	}
+
+	public boolean isSubstitution() {
+		return substitution;
+	}
+
+	/**
+	 * Asks the solver to stop as soon as possible.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
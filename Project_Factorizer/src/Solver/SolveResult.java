@@ -0,0 +1,140 @@
+package Solver;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of {@code Problem.solve(SolveOptions)}: the factors if they have
+ * been found, otherwise the bits of p and q known when the solver stopped.
+ */
+public class SolveResult {
+
+	public static enum Status {
+		// p * q = N
+		SOLVED,
+		// no more progress (or every length difference is contradictory)
+		NOT_SOLVED,
+		// stopped by SolveOptions
+		TIMEOUT, CYCLE_LIMIT, CANCELLED
+	};
+
+	private Status status;
+	// the factors, null if not solved
+	private BigInteger p, q;
+	// bits of p and q from the most significant: '1', '0' or '?' if unknown
+	private String pBits, qBits;
+	// number of relations (equalities, inequalities, values) when the solver stopped
+	private int relations;
+	// cycles of the second phase, over all the length differences
+	private int cycles;
+	// true if every length difference tried (with the cube) is contradictory
+	private boolean refuted;
+	// time of every phase, in order
+	private Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+
+	SolveResult() {
+	}
+
+	void setStatus(Status status) {
+		this.status = status;
+	}
+
+	void setFactors(BigInteger p, BigInteger q) {
+		this.p = p;
+		this.q = q;
+	}
+
+	void setBits(String pBits, String qBits) {
+		this.pBits = pBits;
+		this.qBits = qBits;
+	}
+
+	void setRelations(int relations) {
+		this.relations = relations;
+	}
+
+	void setCycles(int cycles) {
+		this.cycles = cycles;
+	}
+
+	void setRefuted(boolean refuted) {
+		this.refuted = refuted;
+	}
+
+	void addPhase(String phase, long nanos) {
+		phaseNanos.merge(phase, nanos, Long::sum);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isSolved() {
+		return status == Status.SOLVED;
+	}
+
+	public BigInteger getP() {
+		return p;
+	}
+
+	public BigInteger getQ() {
+		return q;
+	}
+
+	/**
+	 *
+	 * @return The bits of p from the most significant, '?' for the unknown
+	 *         ones. If the solver stopped inside a length difference, they
+	 *         hold under that assumption.
+	 */
+	public String getPBits() {
+		return pBits;
+	}
+
+	public String getQBits() {
+		return qBits;
+	}
+
+	public int getRelations() {
+		return relations;
+	}
+
+	public int getCycles() {
+		return cycles;
+	}
+
+	/**
+	 *
+	 * @return True if there is no solution with the length differences and
+	 *         the cube of the options.
+	 */
+	public boolean isRefuted() {
+		return refuted;
+	}
+
+	/**
+	 *
+	 * @return The nanoseconds spent in every phase, in the order they ran.
+	 */
+	public Map<String, Long> getPhaseNanos() {
+		return Collections.unmodifiableMap(phaseNanos);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder ret = new StringBuilder();
+		ret.append(status);
+		if (refuted)
+			ret.append(" (refuted)");
+		if (isSolved())
+			ret.append(": p=" + p + " q=" + q);
+		else
+			ret.append(": p=" + pBits + " q=" + qBits);
+		ret.append(String.format(", %d relations, %d cycles", relations, cycles));
+		for (Map.Entry<String, Long> s : phaseNanos.entrySet())
+			ret.append(String.format(", %s %.3f ms", s.getKey(), s.getValue() / 1e6));
+		return ret.toString();
+	}
+}
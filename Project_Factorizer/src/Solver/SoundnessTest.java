@@ -0,0 +1,56 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class SoundnessTest {
+
+	// 87, 155 and 159 were refuted at their true difference when the MostFalse rule assigned 3 = true
+	private static final int MAX_N = 400;
+
+	@Test
+	public void testTrueDifferenceNotRefuted() throws Exception {
+		File cnf = File.createTempFile("sound", ".cnf");
+		cnf.deleteOnExit();
+		int nChecked = 0;
+		for (int n = 15; n <= MAX_N; n += 2) {
+			int q = smallestFactor(n);
+			int p = n / q;
+			if (q == n || smallestFactor(p) != p)
+				continue;
+			int diff = trueDifference(n, p, q);
+			if (diff < 0)
+				continue;
+
+			Benchmark.writeInstance(BigInteger.valueOf(n), cnf.getPath());
+			Problem problem = new Problem();
+			problem.readFile(cnf.getPath());
+			SolveResult result = problem.solve(new SolveOptions().setVerbose(false).setLengthDifference(diff));
+			assertFalse(n + " = " + p + " * " + q + " refutato con differenza " + diff, result.isRefuted());
+			++nChecked;
+		}
+		assertTrue("Nessun semiprimo controllato", nChecked > 0);
+	}
+
+	private static int smallestFactor(int n) {
+		for (int d = 2; d * d <= n; ++d)
+			if (n % d == 0)
+				return d;
+		return n;
+	}
+
+	// the difference whose lengths of p and q are the ones of the factors, -1 if none
+	private static int trueDifference(int n, int p, int q) {
+		int lenN = BigInteger.valueOf(n).bitLength();
+		int lenP = BigInteger.valueOf(p).bitLength();
+		int lenQ = BigInteger.valueOf(q).bitLength();
+		for (int diff = 0; diff <= lenN; ++diff)
+			if ((lenN + diff + 1) / 2 == lenP && (lenN - diff + 1) / 2 == lenQ)
+				return diff;
+		return -1;
+	}
+}
@@ -0,0 +1,111 @@
+package Solver;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubstitutionTest {
+
+	private Problem problem;
+	// a = (1 2 3)(-1 -2 3)(1 -2 -3), b = (3 4)(-3 -4)
+	private Clause a;
+	private Clause b;
+
+	@Before
+	public void setUp() throws Exception {
+		problem = new Problem();
+		problem.readHeaderLine("p cnf 4 5", 5);
+		a = group(new int[] { 1, 2, 3 }, new int[] { -1, -2, 3 }, new int[] { 1, -2, -3 });
+		b = group(new int[] { 3, 4 }, new int[] { -3, -4 });
+	}
+
+	@Test
+	public void testPopRestoresColumns() {
+		int[] columns = columns(a);
+		int[] rows = rows(a);
+		Clause.GroupType type = a.getGroupType();
+		problem.getQu().union(0, 1);
+
+		problem.pushLevel();
+		assertEquals("Un gruppo non riscritto", 1, problem.substituteEquivalences());
+		assertEquals("a non ha 2 colonne", 2, a.nColumns());
+		// x = y: (x y z) -> (x z), (-x -y z) -> (-x z), (x -y -z) is always true
+		assertEquals("a non ha 2 righe", 2, a.nRows());
+		assertOccurrences();
+
+		problem.popLevel();
+		assertArrayEquals("Colonne di a", columns, columns(a));
+		assertArrayEquals("Righe di a", rows, rows(a));
+		assertEquals("Tipo di a", type, a.getGroupType());
+		assertOccurrences();
+	}
+
+	@Test
+	public void testPopRestoresImplied() {
+		problem.getQu().union(0, 1);
+		int x = problem.getQu().find(0) + 1;
+		// c has every row of a after the substitution, so c implies it
+		Clause c = group(new int[] { x, 3 }, new int[] { -x, 3 }, new int[] { x, -3 });
+		int[] rowsOfC = rows(c);
+
+		problem.pushLevel();
+		problem.substituteEquivalences();
+		assertFalse("a non e' stato tolto", problem.getClauses().contains(a));
+		assertTrue("c e' stato tolto", problem.getClauses().contains(c));
+		assertFalse("a e' ancora nelle occorrenze", occurs(a, 2));
+
+		problem.popLevel();
+		assertEquals("Ci sono 3 gruppi", 3, problem.getClauses().size());
+		assertTrue("a non e' tornato", problem.getClauses().contains(a));
+		assertArrayEquals("Righe di c", rowsOfC, rows(c));
+		assertEquals("a non ha 3 colonne", 3, a.nColumns());
+		assertOccurrences();
+	}
+
+	// every group is in the occurrence list of its columns and only of them
+	private void assertOccurrences() {
+		for (Clause s : problem.getClauses())
+			for (int v = 0; v < 4; ++v) {
+				boolean column = false;
+				for (int j = 0; j < s.nColumns(); ++j)
+					column |= s.getVar(j) == v;
+				assertEquals("Occorrenze di " + v, column, occurs(s, v));
+			}
+	}
+
+	private boolean occurs(Clause s, int v) {
+		return problem.getVarsMap().get(v).clauses().stream().anyMatch(t -> t == s);
+	}
+
+	// a group read from the file, one array of literals per row
+	private Clause group(int[]... rows) {
+		Clause ret = null;
+		for (int[] row : rows) {
+			List<Integer> literals = Arrays.asList(Arrays.stream(row).boxed().toArray(Integer[]::new));
+			if (ret == null)
+				ret = new Clause(literals, problem);
+			ret.insertRow(literals);
+		}
+		ret.evaluateGroupType();
+		problem.addClause(ret);
+		return ret;
+	}
+
+	private static int[] columns(Clause s) {
+		int[] ret = new int[s.nColumns()];
+		for (int j = 0; j < ret.length; ++j)
+			ret[j] = s.getVar(j);
+		return ret;
+	}
+
+	private static int[] rows(Clause s) {
+		int[] ret = new int[s.nRows()];
+		for (int i = 0; i < ret.length; ++i)
+			ret[i] = s.row(i);
+		return ret;
+	}
+}
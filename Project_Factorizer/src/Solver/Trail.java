@@ -0,0 +1,296 @@
+package Solver;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Undo log shared by {@code Problem}, {@code Clause}, {@code Variable} and
+ * {@code QUForest}. While at least one level is open every destructive change
+ * (variable assignments, clause row and column removals, columns rewritten
+ * by the substitution, changes of the occurrence lists, removals from the list
+ * of clauses, union and disjunction writes, member lists of the forest)
+ * records the old value, and {@link #popLevel()} puts them back in reverse
+ * order.</br>
+ * Opening a level only stores the current size of the log, so it takes
+ * constant time; closing it costs as much as the changes made inside.</br>
+ * Every level has its own {@link #stamp()}, so that a slot written many times
+ * (the arrays of the forest) is saved only once per level and the log stays
+ * bounded by the size of the problem, however long the level lasts.
+ */
+public class Trail {
+
+	// kinds of entry, always pushed as the last int of the entry
+	static final int QU_PARENT = 0;
+	static final int QU_ENEMY = 1;
+	static final int QU_SIZE = 2;
+	static final int QU_COUNT = 3;
+	static final int CLAUSE = 4;
+	static final int ASSIGN = 5;
+	static final int OCCURRENCE = 6;
+	static final int CLAUSE_LIST = 7;
+	static final int QU_NEXT = 8;
+	static final int CLAUSE_COLUMNS = 9;
+	static final int OCCURRENCE_ADDED = 10;
+
+	// primitive part of the entries
+	private int[] ints = new int[1024];
+	private int nInts;
+	// object part of the entries
+	private Object[] refs = new Object[256];
+	private int nRefs;
+	// levels[3*k], levels[3*k+1] are nInts and nRefs when level k+1 was opened,
+	// levels[3*k+2] the stamp of level k
+	private int[] levels = new int[48];
+	private int nLevels;
+	// stamp of the innermost level, never given twice
+	private int stamp;
+	private int nStamps;
+
+	// the forest whose writes are recorded
+	private QUForest qu;
+
+	void setQu(QUForest qu) {
+		this.qu = qu;
+	}
+
+	/**
+	 *
+	 * @return True if at least one level is open, so changes must be recorded.
+	 */
+	public boolean isActive() {
+		return nLevels > 0;
+	}
+
+	/**
+	 *
+	 * @return The number of open levels, 0 when nothing is being recorded.
+	 */
+	public int level() {
+		return nLevels;
+	}
+
+	/**
+	 *
+	 * @return An identifier of the innermost open level, different from the
+	 *         one of every other level opened before; 0 when no level is
+	 *         open.
+	 */
+	int stamp() {
+		return stamp;
+	}
+
+	/**
+	 * Opens a new level: every change from now on can be reverted with
+	 * {@link #popLevel()}.
+	 */
+	public void pushLevel() {
+		if (3 * nLevels + 3 > levels.length)
+			levels = Arrays.copyOf(levels, levels.length * 2);
+		levels[3 * nLevels] = nInts;
+		levels[3 * nLevels + 1] = nRefs;
+		levels[3 * nLevels + 2] = stamp;
+		++nLevels;
+		stamp = ++nStamps;
+	}
+
+	/**
+	 * Reverts every change made since the matching {@link #pushLevel()}.
+	 *
+	 * @throws IllegalStateException
+	 *             if no level is open
+	 */
+	public void popLevel() {
+		if (nLevels == 0)
+			throw new IllegalStateException("no level to pop");
+
+		--nLevels;
+		int intsMark = levels[3 * nLevels];
+
+		while (nInts > intsMark)
+			undoLast();
+		stamp = levels[3 * nLevels + 2];
+	}
+
+	@SuppressWarnings("unchecked")
+	private void undoLast() {
+
+		int kind = ints[--nInts];
+
+		switch (kind) {
+		case QU_PARENT:
+		case QU_ENEMY:
+		case QU_SIZE:
+		case QU_COUNT:
+		case QU_NEXT: {
+			int oldValue = ints[--nInts];
+			int index = ints[--nInts];
+			qu.restore(kind, index, oldValue);
+			break;
+		}
+		case CLAUSE: {
+			int nColumns = ints[--nInts];
+			int nRows = ints[--nInts];
+			int removedColumn = ints[--nInts];
+			int removedId = ints[--nInts];
+			nInts -= nRows;
+			Clause clause = (Clause) popRef();
+			clause.restore(nColumns, nRows, removedColumn, removedId, ints, nInts);
+			break;
+		}
+		case ASSIGN: {
+			boolean value = ints[--nInts] == 1;
+			boolean assigned = ints[--nInts] == 1;
+			int nClauses = ints[--nInts];
+			// the list is empty again: what was appended after is already undone
+			Variable variable = (Variable) refs[nRefs - nClauses - 1];
+			List<Clause> clauses = variable.clauses();
+			for (int k = nRefs - nClauses; k < nRefs; ++k)
+				clauses.add((Clause) refs[k]);
+			for (int k = 0; k <= nClauses; ++k)
+				popRef();
+			variable.restore(assigned, value);
+			break;
+		}
+		case OCCURRENCE: {
+			int index = ints[--nInts];
+			Clause clause = (Clause) popRef();
+			Variable variable = (Variable) popRef();
+			variable.clauses().add(index, clause);
+			break;
+		}
+		case CLAUSE_LIST: {
+			Clause clause = (Clause) popRef();
+			List<Clause> clauses = (List<Clause>) popRef();
+			clauses.add(clause);
+			break;
+		}
+		case CLAUSE_COLUMNS: {
+			int nColumns = ints[--nInts];
+			int groupType = ints[--nInts];
+			nInts -= nColumns;
+			Clause clause = (Clause) popRef();
+			clause.restoreColumns(nColumns, ints, nInts, Clause.GroupType.values()[groupType]);
+			break;
+		}
+		case OCCURRENCE_ADDED: {
+			Variable variable = (Variable) popRef();
+			// the changes made after the append are already undone, so it is the last one
+			variable.clauses().remove(variable.clauses().size() - 1);
+			break;
+		}
+		default:
+			throw new IllegalStateException("unknown trail entry " + kind);
+		}
+	}
+
+	void recordQu(int kind, int index, int oldValue) {
+		pushInt(index);
+		pushInt(oldValue);
+		pushInt(kind);
+	}
+
+	/**
+	 * Saves the state of a clause before it loses rows or columns.
+	 *
+	 * @param removedColumn
+	 *            the column that is going to be removed, -1 if only rows are
+	 *            removed
+	 * @param removedId
+	 *            the id of the variable in that column
+	 */
+	void recordClause(Clause clause, int nColumns, int nRows, int removedColumn, int removedId) {
+		if (!isActive())
+			return;
+		pushRef(clause);
+		for (int i = 0; i < nRows; ++i)
+			pushInt(clause.row(i));
+		pushInt(removedId);
+		pushInt(removedColumn);
+		pushInt(nRows);
+		pushInt(nColumns);
+		pushInt(CLAUSE);
+	}
+
+	/**
+	 * Saves the columns and the type of a group whose columns are going to be
+	 * rewritten; the rows are saved by {@link #recordClause}.
+	 */
+	void recordColumns(Clause clause) {
+		if (!isActive())
+			return;
+		pushRef(clause);
+		for (int j = 0; j < clause.nColumns(); ++j)
+			pushInt(clause.getVar(j));
+		pushInt(clause.getGroupType().ordinal());
+		pushInt(clause.nColumns());
+		pushInt(CLAUSE_COLUMNS);
+	}
+
+	/**
+	 * Saves that a clause has been appended to the occurrence list of a
+	 * variable.
+	 */
+	void recordOccurrenceAdded(Variable variable) {
+		if (!isActive())
+			return;
+		pushRef(variable);
+		pushInt(OCCURRENCE_ADDED);
+	}
+
+	/**
+	 * Saves the assignment of a variable together with the clauses of its
+	 * occurrence list, that is going to be cleared.
+	 */
+	void recordAssign(Variable variable, List<Clause> clauses) {
+		pushRef(variable);
+		for (int k = 0; k < clauses.size(); ++k)
+			pushRef(clauses.get(k));
+		pushInt(clauses.size());
+		pushInt(variable.isAssigned() ? 1 : 0);
+		pushInt(variable.getValue() ? 1 : 0);
+		pushInt(ASSIGN);
+	}
+
+	/**
+	 * Saves the position of a clause removed from the occurrence list of a
+	 * variable.
+	 */
+	void recordOccurrence(Variable variable, Clause clause, int index) {
+		if (!isActive())
+			return;
+		pushRef(variable);
+		pushRef(clause);
+		pushInt(index);
+		pushInt(OCCURRENCE);
+	}
+
+	/**
+	 * Saves a clause removed from the list of clauses of the problem. When
+	 * undone the clause is appended, so the list must be sorted again.
+	 */
+	void recordClauseRemoved(List<Clause> clauses, Clause clause) {
+		if (!isActive())
+			return;
+		pushRef(clauses);
+		pushRef(clause);
+		pushInt(CLAUSE_LIST);
+	}
+
+	private void pushInt(int value) {
+		if (nInts == ints.length)
+			ints = Arrays.copyOf(ints, nInts * 2);
+		ints[nInts++] = value;
+	}
+
+	private void pushRef(Object ref) {
+		if (nRefs == refs.length)
+			refs = Arrays.copyOf(refs, nRefs * 2);
+		refs[nRefs++] = ref;
+	}
+
+	private Object popRef() {
+		Object ref = refs[--nRefs];
+		refs[nRefs] = null;
+		return ref;
+	}
+}
@@ -11,10 +11,14 @@ public class Variable {
 	private boolean value;
 	// List of all the clauses where the Variable is contained
 	private List<Clause> clauses = new ArrayList<Clause>();
+	// undo log of the problem, can be null
+	private Trail trail;
 	
 	
 	
 	public void addClause(Clause clause) {
+		if(trail != null)
+			trail.recordOccurrenceAdded(this);
 		clauses.add(clause);
 	}
 	
@@ -22,6 +26,22 @@ public class Variable {
 		this.id = id;
 	}
 	
+	/**
+	 * Copies the assignment of the variable, the occurrence list is left empty
+	 * and must be filled with the copied clauses.
+	 */
+	Variable(Variable other, Trail trail) {
+		this.id = other.id;
+		this.assigned = other.assigned;
+		this.value = other.value;
+		this.trail = trail;
+	}
+	
+	public Variable(int id, Trail trail) {
+		this.id = id;
+		this.trail = trail;
+	}
+	
 	public int getId() {
 		return id;
 	}
@@ -38,12 +58,15 @@ public class Variable {
 
 	public void assignValue(boolean value) {
 
+		//while speculating the clauses of the occurrence list are saved in the trail
+		if(trail != null && trail.isActive())
+			trail.recordAssign(this, clauses);
+
 		assigned=true;
 		this.value=value;
 		
-		clauses.stream().forEach(s->{
-			s.assignVariable(id, value);
-		});;
+		for (int i = 0; i < clauses.size(); ++i)
+			clauses.get(i).assignVariable(id, value);
 		
 		//the variable now does not appear in any clause
 		clauses.clear();
@@ -54,7 +77,18 @@ public class Variable {
 	}
 
 	public void removeClause(Clause clause) {
-		clauses.remove(clause);
+		int index = clauses.indexOf(clause);
+		if(index == -1) return;
+		
+		if(trail != null)
+			trail.recordOccurrence(this, clause, index);
+		clauses.remove(index);
+	}
+	
+	// called by the trail to put back the state saved by assignValue(), the clauses are added back by the trail
+	void restore(boolean assigned, boolean value) {
+		this.assigned = assigned;
+		this.value = value;
 	}
 	
 }